@@ -1,11 +1,19 @@
 package application;
 
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Set;
 
 import geography.GeographicPoint;
-import util.GraphLoader;
+import roadgraph.SpatialIndex;
+import roadgraph.StreetIndex;
+import util.GraphCache;
+import util.MapDelta;
+import util.MapDeltaApplier;
+import util.MapGraphSink;
+import util.RoadSegmentSink;
+import util.RoadTopology;
 
 /**
  * Class to wrap the graph, current .map file map, and 
@@ -15,11 +23,18 @@ import util.GraphLoader;
  *
  */
 public class DataSet {
+	// Graphs already built from a .map file are reloaded from here
+	private static final GraphCache graphCache = new GraphCache("data/cache/");
+
 	String filePath;
 	roadgraph.MapGraph graph;
 	Set<GeographicPoint> intersections;
     private HashMap<geography.GeographicPoint,HashSet<geography.RoadSegment>>  roads;
 	boolean currentlyDisplayed;
+	private MapDeltaApplier deltaApplier;
+	// Street name search and reverse geocoding for the loaded graph,
+	// built when first asked for
+	private StreetIndex streetIndex;
 
 	public DataSet (String path) {
         this.filePath = path;
@@ -59,7 +74,36 @@ public class DataSet {
         roads = new HashMap<geography.GeographicPoint, HashSet<geography.RoadSegment>>();
         intersections = new HashSet<GeographicPoint>();
         //TODO: change to use intersections for points in graph.
-    	GraphLoader.loadRoadMap(filePath, graph, roads, intersections);
+    	graphCache.load(filePath, new MapGraphSink(graph, intersections),
+    			new RoadSegmentSink(roads));
+        deltaApplier = null;
+        streetIndex = null;
+    }
+
+    public StreetIndex getStreetIndex() {
+        if (streetIndex == null) {
+            streetIndex = new StreetIndex(graph, new SpatialIndex(graph, roads));
+        }
+        return this.streetIndex;
+    }
+
+    /** Apply a delta file of added and removed road segments to the loaded 
+     * graph and roads, without reloading the .map file.
+     * @param deltaFile The delta file, in the format described in MapDelta
+     * @return The intersections whose edges were rebuilt
+     * @throws IOException If the delta file cannot be read or is malformed;
+     * the graph is then left unchanged
+     */
+    public Set<GeographicPoint> applyDelta(String deltaFile) throws IOException {
+        MapDelta delta = MapDelta.load(deltaFile);
+        if (deltaApplier == null) {
+            deltaApplier = new MapDeltaApplier(RoadTopology.load(filePath), graph, roads);
+        }
+        Set<GeographicPoint> changed = deltaApplier.apply(delta);
+        intersections.addAll(changed);
+        intersections.retainAll(graph.getVertices());
+        streetIndex = null;
+        return changed;
     }
 
 	public String getFilePath() {
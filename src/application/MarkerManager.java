@@ -7,10 +7,14 @@
 package application;
 
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 
+import gmapsfx.javascript.event.MapStateEventType;
 import gmapsfx.javascript.event.UIEventType;
 import gmapsfx.javascript.object.Animation;
 import gmapsfx.javascript.object.GoogleMap;
@@ -20,15 +24,26 @@ import gmapsfx.javascript.object.MarkerOptions;
 import javafx.scene.control.Button;
 import gmapsfx.javascript.object.LatLongBounds;
 import netscape.javascript.JSObject;
+import util.PackedRTree;
 
 public class MarkerManager {
 
     private static final double DEFAULT_Z = 2;
     private static final double SELECT_Z = 1;
     private static final double STRTDEST_Z = 3;
+    // Most markers shown at once; when zoomed out further, the ones
+    // nearest the centre of the view are shown
+    private static final int MAX_VISIBLE_MARKERS = 1000;
 
+    // Markers are only created for the intersections in view. markerMap
+    // keeps every marker created for the data set, so panning back reuses
+    // them (and their click handlers); shownPoints are those on the map.
     private HashMap<geography.GeographicPoint, Marker> markerMap;
+    private Set<geography.GeographicPoint> shownPoints;
     private ArrayList<geography.GeographicPoint> markerPositions;
+    private PackedRTree markerIndex;
+    private boolean boundsHandlerAdded;
+    private boolean intermediateHidden;
     private GoogleMap map;
     protected static String startURL = "http://maps.google.com/mapfiles/kml/pal3/icon40.png";
     protected static String destinationURL = "http://maps.google.com/mapfiles/kml/pal2/icon5.png";
@@ -47,6 +62,7 @@ public class MarkerManager {
 
     public MarkerManager() {
     	markerMap = new HashMap<geography.GeographicPoint, Marker>();
+    	shownPoints = new HashSet<geography.GeographicPoint>();
     	this.map = null;
     	this.selectManager = null;
         this.rv = null;
@@ -108,7 +124,7 @@ public class MarkerManager {
             changeIcon(startMarker, markerURL);
 //            startMarker.setZIndex(DEFAULT_Z);
     	}
-        startMarker = markerMap.get(point);
+        startMarker = showMarker(point);
 //        startMarker.setZIndex(STRTDEST_Z);
         changeIcon(startMarker, startURL);
     }
@@ -117,11 +133,27 @@ public class MarkerManager {
     		destinationMarker.setIcon(markerURL);
 //            destinationMarker.setZIndex(DEFAULT_Z);
     	}
-        destinationMarker = markerMap.get(point);
+        destinationMarker = showMarker(point);
 //        destinationMarker.setZIndex(STRTDEST_Z);
         changeIcon(destinationMarker, destinationURL);
     }
 
+    // The marker of a point, created and put on the map if the point
+    // has not been shown since the data set was displayed
+    private Marker showMarker(geography.GeographicPoint point) {
+        Marker marker = markerMap.get(point);
+        if (marker == null) {
+            marker = new Marker(createDefaultOptions(new LatLong(point.getX(), point.getY())));
+            registerEvents(marker, point);
+            putMarker(point, marker);
+        }
+        if (!shownPoints.contains(point)) {
+            map.addMarker(marker);
+            shownPoints.add(point);
+        }
+        return marker;
+    }
+
     public void changeIcon(Marker marker, String url) {
         marker.setVisible(false);
         marker.setIcon(url);
@@ -132,7 +164,8 @@ public class MarkerManager {
      * TODO -- Might need to create all new markers and add them??
      */
     public void restoreMarkers() {
-    	Iterator<geography.GeographicPoint> it = markerMap.keySet().iterator();
+        intermediateHidden = false;
+    	Iterator<geography.GeographicPoint> it = shownPoints.iterator();
         while(it.hasNext()) {
             Marker marker = markerMap.get(it.next());
             // destination marker needs to be added because it is added in javascript
@@ -145,8 +178,8 @@ public class MarkerManager {
     }
 
     public void refreshMarkers() {
-
-    	Iterator<geography.GeographicPoint> it = markerMap.keySet().iterator();
+        intermediateHidden = false;
+    	Iterator<geography.GeographicPoint> it = shownPoints.iterator();
         while(it.hasNext()) {
         	Marker marker = markerMap.get(it.next());
         	marker.setVisible(true);
@@ -157,10 +190,20 @@ public class MarkerManager {
         	rv.clearMarkers();
         	rv = null;
         }
-    	Iterator<geography.GeographicPoint> it = markerMap.keySet().iterator();
+    	Iterator<geography.GeographicPoint> it = shownPoints.iterator();
     	while(it.hasNext()) {
-    		markerMap.get(it.next()).setVisible(false);
+    		map.removeMarker(markerMap.get(it.next()));
     	}
+        shownPoints.clear();
+        markerMap.clear();
+        markerIndex = null;
+        markerPositions = null;
+        startMarker = null;
+        destinationMarker = null;
+        selectedMarker = null;
+        if(selectManager != null) {
+        	selectManager.clearAll();
+        }
     }
 
     public void setSelectMode(boolean value) {
@@ -184,7 +227,8 @@ public class MarkerManager {
     }
 
     public void hideIntermediateMarkers() {
-        Iterator<geography.GeographicPoint> it = markerMap.keySet().iterator();
+        intermediateHidden = true;
+        Iterator<geography.GeographicPoint> it = shownPoints.iterator();
         while(it.hasNext()) {
             Marker marker = markerMap.get(it.next());
             if(marker != startMarker && marker != destinationMarker) {
@@ -195,7 +239,9 @@ public class MarkerManager {
     }
 
     public void hideDestinationMarker() {
-    	destinationMarker.setVisible(false);
+    	if(destinationMarker != null) {
+    		destinationMarker.setVisible(false);
+    	}
     }
 
     public void displayMarker(geography.GeographicPoint point) {
@@ -209,27 +255,105 @@ public class MarkerManager {
     	}
     }
     public void displayDataSet() {
-        markerPositions = new ArrayList<geography.GeographicPoint>();
         dataSet.initializeGraph();
-    	Iterator<geography.GeographicPoint>it = dataSet.getIntersections().iterator();
-        bounds = new LatLongBounds();
-        while(it.hasNext()) {
-        	geography.GeographicPoint point = it.next();
-            LatLong ll = new LatLong(point.getX(), point.getY());
-        	MarkerOptions markerOptions = createDefaultOptions(ll);
-            bounds.extend(ll);
-        	Marker marker = new Marker(markerOptions);
-            registerEvents(marker, point);
-        	map.addMarker(marker);
-        	putMarker(point, marker);
-        	markerPositions.add(point);
-//            marker.setZIndex(DEFAULT_Z);
+        markerPositions = new ArrayList<geography.GeographicPoint>(dataSet.getIntersections());
+
+        // Index the intersections by lon/lat and find their bounds without
+        // a round trip to the map for every point
+        int n = markerPositions.size();
+        double[] lon = new double[n];
+        double[] lat = new double[n];
+        for (int i = 0; i < n; i++) {
+            lat[i] = markerPositions.get(i).getX();
+            lon[i] = markerPositions.get(i).getY();
+        }
+        markerIndex = new PackedRTree(lon, lat, lon, lat);
+        if (n == 0) {
+            return;
+        }
+        double minLat = Double.POSITIVE_INFINITY, maxLat = Double.NEGATIVE_INFINITY;
+        double minLon = Double.POSITIVE_INFINITY, maxLon = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < n; i++) {
+            minLat = Math.min(minLat, lat[i]);
+            maxLat = Math.max(maxLat, lat[i]);
+            minLon = Math.min(minLon, lon[i]);
+            maxLon = Math.max(maxLon, lon[i]);
+        }
+        bounds = new LatLongBounds(new LatLong(minLat, minLon), new LatLong(maxLat, maxLon));
+
+        // The map fires idle once it settles after every pan or zoom,
+        // including the one fitBounds starts
+        if (!boundsHandlerAdded) {
+            map.addStateEventHandler(MapStateEventType.idle, () -> updateVisibleMarkers());
+            boundsHandlerAdded = true;
         }
         map.fitBounds(bounds);
         // System.out.println("End of display Intersections");
 
     }
 
+    /**
+     * Show markers for the intersections inside the current map bounds,
+     * creating the ones not shown before, and take the others off the map.
+     * The start, destination and selected markers always stay.
+     */
+    public void updateVisibleMarkers() {
+        if (markerIndex == null) {
+            return;
+        }
+        LatLongBounds view = map.getBounds();
+        LatLong sw = view.getSouthWest();
+        LatLong ne = view.getNorthEast();
+        double south = sw.getLatitude(), west = sw.getLongitude();
+        double north = ne.getLatitude(), east = ne.getLongitude();
+
+        List<geography.GeographicPoint> inView = new ArrayList<geography.GeographicPoint>();
+        if (west <= east) {
+            markerIndex.search(west, south, east, north, (i) -> inView.add(markerPositions.get(i)));
+        }
+        else {
+            // The view crosses the antimeridian
+            markerIndex.search(west, south, 180, north, (i) -> inView.add(markerPositions.get(i)));
+            markerIndex.search(-180, south, east, north, (i) -> inView.add(markerPositions.get(i)));
+        }
+        if (inView.size() > MAX_VISIBLE_MARKERS) {
+            double centreLat = (south + north) / 2;
+            double centreLon = (west + east) / 2;
+            inView.sort(Comparator.comparingDouble((geography.GeographicPoint p) ->
+                    Math.abs(p.getX() - centreLat) + Math.abs(p.getY() - centreLon)));
+            inView.subList(MAX_VISIBLE_MARKERS, inView.size()).clear();
+        }
+        Set<geography.GeographicPoint> toShow = new HashSet<geography.GeographicPoint>(inView);
+
+        Iterator<geography.GeographicPoint> it = shownPoints.iterator();
+        while (it.hasNext()) {
+            geography.GeographicPoint point = it.next();
+            Marker marker = markerMap.get(point);
+            if (!toShow.contains(point) && marker != startMarker
+                    && marker != destinationMarker && marker != selectedMarker) {
+                map.removeMarker(marker);
+                it.remove();
+            }
+        }
+        for (geography.GeographicPoint point : inView) {
+            if (shownPoints.contains(point)) {
+                continue;
+            }
+            Marker marker = markerMap.get(point);
+            if (marker == null) {
+                MarkerOptions markerOptions = createDefaultOptions(new LatLong(point.getX(), point.getY()));
+                marker = new Marker(markerOptions.visible(!intermediateHidden));
+                registerEvents(marker, point);
+                putMarker(point, marker);
+            }
+            else {
+                marker.setVisible(!intermediateHidden);
+            }
+            map.addMarker(marker);
+            shownPoints.add(point);
+        }
+    }
+
 
     private void registerEvents(Marker marker, geography.GeographicPoint point) {
         /*map.addUIEventHandler(marker, UIEventType.mouseover, (JSObject o) -> {
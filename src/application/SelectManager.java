@@ -39,6 +39,24 @@ public class SelectManager {
     	pointLabel.setItem(null);
     }
 
+    /** Forget the selected point, start and destination, whose markers
+     * belong to the data set being taken off the map.
+     */
+    public void clearAll() {
+        selectedMarker = null;
+        startMarker = null;
+        destinationMarker = null;
+        if(pointLabel != null) {
+            pointLabel.setItem(null);
+        }
+        if(startLabel != null) {
+            startLabel.setItem(null);
+        }
+        if(destinationLabel != null) {
+            destinationLabel.setItem(null);
+        }
+    }
+
     public void setAndDisplayData(DataSet data) {
     	setDataSet(data);
         //TODO - maybe if markerManager!= null?
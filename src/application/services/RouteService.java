@@ -15,8 +15,10 @@ import application.RouteVisualization;
 import application.controllers.RouteController;
 
 import geography.GeographicPoint;
+import geography.PolylineSimplifier;
 import geography.RoadSegment;
 import gmapsfx.GoogleMapView;
+import gmapsfx.javascript.event.MapStateEventType;
 import gmapsfx.javascript.object.GoogleMap;
 import gmapsfx.javascript.object.LatLong;
 import gmapsfx.javascript.object.LatLongBounds;
@@ -26,14 +28,22 @@ import javafx.scene.control.Button;
 
 public class RouteService {
 	private GoogleMap map;
+	private GoogleMapView mapComponent;
 
     // static variable
     private MarkerManager markerManager;
     private Polyline routeLine;
     private RouteVisualization rv;
 
+    // The intersections of the displayed route and the road segment
+    // between each pair, so the line can be redrawn for a new zoom
+    private List<GeographicPoint> routePath;
+    private List<RoadSegment> routeSegments;
+    private boolean zoomHandlerAdded = false;
+
 	public RouteService(GoogleMapView mapComponent, MarkerManager manager) {
 		this.map = mapComponent.getMap();
+		this.mapComponent = mapComponent;
         this.markerManager = manager;
 
 	}
@@ -45,26 +55,43 @@ public class RouteService {
 	// add route polyline to map
 	//DISPLAY ROUTE METHODS
 	/**
-	 * Displays route on Google Map
+	 * Displays route on Google Map, drawn with only the points needed at
+	 * the zoom the map will have once it fits the route
 	 * @return returns false if route fails to display
 	 */
-	private boolean displayRoute(List<LatLong> route) {
+	private boolean displayRoute(List<GeographicPoint> path) {
 
         if(routeLine != null) {
         	removeRouteLine();
         }
 
-		routeLine = new Polyline();
-		MVCArray path = new MVCArray();
-		LatLongBounds bounds = new LatLongBounds();
+        routePath = path;
+        routeSegments = findSegments(path);
 
-		for(LatLong point : route)  {
-			path.push(point);
-            bounds = bounds.extend(point);
+		double minLat = Double.POSITIVE_INFINITY, maxLat = Double.NEGATIVE_INFINITY;
+		double minLon = Double.POSITIVE_INFINITY, maxLon = Double.NEGATIVE_INFINITY;
+		for(GeographicPoint point : path) {
+			minLat = Math.min(minLat, point.getX());
+			maxLat = Math.max(maxLat, point.getX());
+			minLon = Math.min(minLon, point.getY());
+			maxLon = Math.max(maxLon, point.getY());
 		}
+		LatLongBounds bounds = new LatLongBounds(new LatLong(minLat, minLon), new LatLong(maxLat, maxLon));
 
-		routeLine.setPath(path);
+		routeLine = new Polyline();
+		routeLine.setPath(toMVCArray(assembleRoute(fitZoom(minLat, minLon, maxLat, maxLon))));
 		map.addMapShape(routeLine);
+
+		// Redraw the line with the detail the new zoom needs
+		if(!zoomHandlerAdded) {
+			map.addStateEventHandler(MapStateEventType.zoom_changed, () -> {
+				if(routeLine != null) {
+					routeLine.setPath(toMVCArray(assembleRoute(map.getZoom())));
+				}
+			});
+			zoomHandlerAdded = true;
+		}
+
 		markerManager.hideIntermediateMarkers();
 		map.fitBounds(bounds);
     	markerManager.disableVisButton(false);
@@ -72,6 +99,37 @@ public class RouteService {
 		return true;
 	}
 
+	// Build the path of the line in one call, rather than one push per point
+	private static MVCArray toMVCArray(List<GeographicPoint> route) {
+		LatLong[] points = new LatLong[route.size()];
+		for(int i = 0; i < points.length; i++) {
+			points[i] = new LatLong(route.get(i).getX(), route.get(i).getY());
+		}
+		return new MVCArray(points);
+	}
+
+	// The zoom fitBounds will choose to show the box on the map, following
+	// the web Mercator projection of Google Maps
+	private int fitZoom(double minLat, double minLon, double maxLat, double maxLon) {
+		double width = mapComponent.getWidth();
+		double height = mapComponent.getHeight();
+		double lonFraction = (maxLon - minLon) / 360;
+		double latFraction = (mercatorY(maxLat) - mercatorY(minLat)) / (2 * Math.PI);
+		double zoom = PolylineSimplifier.MAX_ZOOM;
+		if(lonFraction > 0) {
+			zoom = Math.min(zoom, Math.log(width / 256 / lonFraction) / Math.log(2));
+		}
+		if(latFraction > 0) {
+			zoom = Math.min(zoom, Math.log(height / 256 / latFraction) / Math.log(2));
+		}
+		return (int) Math.max(0, Math.floor(zoom));
+	}
+
+	private static double mercatorY(double lat) {
+		double sin = Math.sin(Math.toRadians(lat));
+		return Math.log((1 + sin) / (1 - sin)) / 2;
+	}
+
     public void hideRoute() {
     	if(routeLine != null) {
         	map.removeMapShape(routeLine);
@@ -132,7 +190,7 @@ public class RouteService {
                 }
 
                 markerManager.setSelectMode(false);
-                return displayRoute(constructMapPath(path));
+                return displayRoute(path);
     		}
 
     		return false;
@@ -142,53 +200,70 @@ public class RouteService {
     }
 
     /**
-     * Construct path including road regments
+     * Find the road segment between each pair of intersections on a path,
+     * taking the shortest where there are several
      * @param path - path with only intersections
-     * @return list of LatLongs corresponding the path of route
+     * @return list of segments, one for each step of the path
      */
-    private List<LatLong> constructMapPath(List<geography.GeographicPoint> path) {
-    	List<LatLong> retVal = new ArrayList<LatLong>();
-        List<geography.GeographicPoint> segmentList = null;
-    	geography.GeographicPoint curr;
-    	geography.GeographicPoint next;
-
-    	geography.RoadSegment chosenSegment = null;;
+    private List<RoadSegment> findSegments(List<GeographicPoint> path) {
+    	List<RoadSegment> retVal = new ArrayList<RoadSegment>();
 
         for(int i = 0; i < path.size() - 1; i++) {
-            double minLength = Double.MAX_VALUE;
-        	curr = path.get(i);
-        	next = path.get(i+1);
-
-        	if(markerManager.getDataSet().getRoads().containsKey(curr)) {
-        		HashSet<geography.RoadSegment> segments = markerManager.getDataSet().getRoads().get(curr);
-        		Iterator<geography.RoadSegment> it = segments.iterator();
-
-        		// get segments which are
-            	geography.RoadSegment currSegment;
-                while(it.hasNext()) {
-                	currSegment = it.next();
+        	GeographicPoint curr = path.get(i);
+        	GeographicPoint next = path.get(i+1);
+        	RoadSegment chosenSegment = null;
+
+        	HashSet<RoadSegment> segments = markerManager.getDataSet().getRoads().get(curr);
+        	if(segments != null) {
+        		// get the shortest segment which leads to next
+                for(RoadSegment currSegment : segments) {
                 	if(currSegment.getOtherPoint(curr).equals(next)) {
-                		if(currSegment.getLength() < minLength) {
+                		if(chosenSegment == null || currSegment.getLength() < chosenSegment.getLength()) {
                 			chosenSegment = currSegment;
                 		}
                 	}
                 }
-
-                if(chosenSegment != null) {
-                    segmentList = chosenSegment.getPoints(curr, next);
-                    for(geography.GeographicPoint point : segmentList) {
-                        retVal.add(new LatLong(point.getX(), point.getY()));
-                    }
-                }
-                else {
-                	System.err.println("ERROR in constructMapPath : chosenSegment was null");
-                }
         	}
+
+            if(chosenSegment == null) {
+            	System.err.println("ERROR in findSegments : chosenSegment was null");
+            }
+            retVal.add(chosenSegment);
         }
 
     	return retVal;
     }
 
+    /**
+     * Construct the displayed route for a zoom level. Each segment
+     * contributes the points of its geometry needed at that zoom, and the
+     * joined route is simplified once more, so a long route is drawn with
+     * a few points per pixel of screen rather than every point of its roads.
+     * @param zoom - zoom level of the map
+     * @return list of points of the route, in order
+     */
+    private List<GeographicPoint> assembleRoute(int zoom) {
+    	List<GeographicPoint> route = new ArrayList<GeographicPoint>();
+    	if(routePath.isEmpty()) {
+    		return route;
+    	}
+    	route.add(routePath.get(0));
+
+        for(int i = 0; i < routeSegments.size(); i++) {
+        	RoadSegment segment = routeSegments.get(i);
+        	if(segment == null) {
+        		route.add(routePath.get(i+1));
+        		continue;
+        	}
+        	List<GeographicPoint> points = segment.getPoints(routePath.get(i), routePath.get(i+1), zoom);
+        	// the first point is the end of the previous segment
+        	route.addAll(points.subList(1, points.size()));
+        }
+
+        double tolerance = PolylineSimplifier.pixelSize(zoom, routePath.get(0).getX());
+    	return PolylineSimplifier.simplify(route, tolerance);
+    }
+
 	private void removeRouteLine() {
         if(routeLine != null) {
     		map.removeMapShape(routeLine);
@@ -1,12 +1,16 @@
 package basicgraph;
 
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.function.IntConsumer;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import util.GraphLoader;
 
@@ -25,8 +29,9 @@ public abstract class Graph {
 
 	private int numVertices;
 	private int numEdges;
-	//optional association of String labels to vertices 
-	private Map<Integer,String> vertexLabels;
+	//optional association of String labels to vertices, indexed both ways
+	private ArrayList<String> vertexLabels;
+	private Map<String,Integer> labelIndices;
 	
 	/**
 	 * Create a new empty Graph
@@ -35,6 +40,7 @@ public abstract class Graph {
 		numVertices = 0;
 		numEdges = 0;
 		vertexLabels = null;
+		labelIndices = null;
 	}
 
 	
@@ -111,6 +117,49 @@ public abstract class Graph {
 	 */
 	public abstract List<Integer> getInNeighbors(int v);
 
+	/**
+	 * Visit all (out-)neighbors of a given vertex without building a list.
+	 * A neighbor is visited once for each edge to it.  Subclasses should
+	 * override this to walk their representation directly.
+	 * @param v Index of vertex in question.
+	 * @param visitor Receives the index of each out-neighbor.
+	 */
+	public void forEachNeighbor(int v, IntConsumer visitor) {
+		for (int w : getNeighbors(v)) {
+			visitor.accept(w);
+		}
+	}
+
+	/**
+	 * Visit all in-neighbors of a given vertex without building a list.
+	 * A neighbor is visited once for each edge from it.
+	 * @param v Index of vertex in question.
+	 * @param visitor Receives the index of each in-neighbor.
+	 */
+	public void forEachInNeighbor(int v, IntConsumer visitor) {
+		for (int u : getInNeighbors(v)) {
+			visitor.accept(u);
+		}
+	}
+
+	/**
+	 * Report the number of edges leaving a vertex.
+	 * @param v Index of vertex in question.
+	 * @return The out-degree of v.
+	 */
+	public int getOutDegree(int v) {
+		return getNeighbors(v).size();
+	}
+
+	/**
+	 * Report the number of edges entering a vertex.
+	 * @param v Index of vertex in question.
+	 * @return The in-degree of v.
+	 */
+	public int getInDegree(int v) {
+		return getInNeighbors(v).size();
+	}
+
 	/** 
 	 * The degree sequence of a graph is a sorted (organized in numerical order 
 	 * from largest to smallest, possibly with repetitions) list of the degrees 
@@ -121,15 +170,16 @@ public abstract class Graph {
 	public List<Integer> degreeSequence() {
 		int number = this.getNumVertices();
 
-		ArrayList<Integer> degreeSequence = new ArrayList<Integer>();
-
-		for (int i = 0;i < number; i++) {
-			List<Integer> outNeighbors = this.getNeighbors(i);
-			List<Integer> inNeighbors = this.getInNeighbors(i);
-			degreeSequence.add(outNeighbors.size() + inNeighbors.size());
+		int[] degrees = new int[number];
+		for (int i = 0; i < number; i++) {
+			degrees[i] = getOutDegree(i) + getInDegree(i);
 		}
+		Arrays.sort(degrees);
 
-		Collections.sort(degreeSequence, Collections.reverseOrder());
+		ArrayList<Integer> degreeSequence = new ArrayList<Integer>(number);
+		for (int i = number - 1; i >= 0; i--) {
+			degreeSequence.add(degrees[i]);
+		}
 
 		return degreeSequence;
 	}
@@ -138,11 +188,134 @@ public abstract class Graph {
 	 * Get all the vertices that are 2 away from the vertex in question.
 	 * @param v The starting vertex
 	 * @return A list of the vertices that can be reached in exactly two hops (by 
-	 * following two edges) from vertex v.
+	 * following two edges) from vertex v, once for each such path; 
+	 * getDistanceK(v, 2) gives each of them once.
 	 * XXX: Implement in part 2 of week 2 for each subclass of Graph
 	 */
 	public abstract List<Integer> getDistance2(int v); 
 
+	// Working bitsets for the k-hop queries, one set per thread and shared
+	// by all graphs, grown as needed
+	private static final ThreadLocal<HopScratch> hopScratch = 
+			ThreadLocal.withInitial(HopScratch::new);
+
+	/**
+	 * Get all the vertices that are k hops away from the vertex in question.
+	 * @param v The starting vertex
+	 * @param k The number of hops
+	 * @return The vertices that can be reached by following exactly k 
+	 * edges from vertex v.
+	 */
+	public BitSet getDistanceK(int v, int k) {
+		HopScratch scratch = hopScratch.get();
+		int words = (getNumVertices() + 63) >>> 6;
+		scratch.ensure(words);
+		long[] frontier = scratch.frontier;
+		long[] next = scratch.next;
+		Arrays.fill(frontier, 0, words, 0);
+		frontier[v >>> 6] |= 1L << v;
+		for (int hop = 0; hop < k; hop++) {
+			Arrays.fill(next, 0, words, 0);
+			if (!expandFrontier(frontier, next, words)) {
+				return new BitSet();
+			}
+			long[] t = frontier;
+			frontier = next;
+			next = t;
+		}
+		return BitSet.valueOf(Arrays.copyOf(frontier, words));
+	}
+
+	/**
+	 * Get all the vertices within k hops of the vertex in question.
+	 * @param v The starting vertex
+	 * @param k The largest number of hops
+	 * @return The vertices other than v that can be reached by following 
+	 * at most k edges from vertex v.
+	 */
+	public BitSet withinK(int v, int k) {
+		HopScratch scratch = hopScratch.get();
+		int words = (getNumVertices() + 63) >>> 6;
+		scratch.ensure(words);
+		long[] frontier = scratch.frontier;
+		long[] next = scratch.next;
+		long[] seen = scratch.seen;
+		Arrays.fill(frontier, 0, words, 0);
+		Arrays.fill(seen, 0, words, 0);
+		frontier[v >>> 6] |= 1L << v;
+		seen[v >>> 6] |= 1L << v;
+		for (int hop = 0; hop < k; hop++) {
+			Arrays.fill(next, 0, words, 0);
+			expandFrontier(frontier, next, words);
+			// Only the vertices not seen before go on to the next hop
+			boolean any = false;
+			for (int i = 0; i < words; i++) {
+				next[i] &= ~seen[i];
+				seen[i] |= next[i];
+				any |= next[i] != 0;
+			}
+			if (!any) {
+				break;
+			}
+			long[] t = frontier;
+			frontier = next;
+			next = t;
+		}
+		seen[v >>> 6] &= ~(1L << v);
+		return BitSet.valueOf(Arrays.copyOf(seen, words));
+	}
+
+	/**
+	 * Get the vertices within k hops of each of many vertices, computing 
+	 * the vertices in parallel.
+	 * @param vertices The starting vertices
+	 * @param k The largest number of hops
+	 * @return The result of withinK for each starting vertex, in order.
+	 */
+	public List<BitSet> withinK(int[] vertices, int k) {
+		return IntStream.of(vertices).parallel()
+				.mapToObj(v -> withinK(v, k))
+				.collect(Collectors.toList());
+	}
+
+	/**
+	 * Set in next the out-neighbors of every vertex in frontier.  
+	 * Subclasses may override this with a faster way for their 
+	 * representation.
+	 * @param frontier The vertices to expand, as a bitset
+	 * @param next Receives the out-neighbors; it is clear on entry
+	 * @param words The number of words of the bitsets in use
+	 * @return true if frontier was not empty
+	 */
+	protected boolean expandFrontier(long[] frontier, long[] next, int words) {
+		boolean any = false;
+		IntConsumer mark = w -> next[w >>> 6] |= 1L << w;
+		for (int word = 0; word < words; word++) {
+			for (long bits = frontier[word]; bits != 0; bits &= bits - 1) {
+				forEachNeighbor((word << 6) + Long.numberOfTrailingZeros(bits), mark);
+				any = true;
+			}
+		}
+		return any;
+	}
+
+	/**
+	 * The working bitsets of one thread for the k-hop queries.
+	 */
+	private static class HopScratch {
+		long[] frontier = new long[0];
+		long[] next = new long[0];
+		long[] seen = new long[0];
+
+		void ensure(int words) {
+			if (frontier.length < words) {
+				frontier = new long[words];
+				next = new long[words];
+				seen = new long[words];
+			}
+		}
+	}
+
 	/** Return a String representation of the graph
 	 * @return A string representation of the graph
 	 */
@@ -168,7 +341,8 @@ public abstract class Graph {
 	 * (Optional: only if using labeled vertices.)
 	 */
 	public void initializeLabels() {
-		vertexLabels = new HashMap<Integer,String>();
+		vertexLabels = new ArrayList<String>();
+		labelIndices = new HashMap<String,Integer>();
 	}	
 	/**
 	 * Test whether some vertex in the graph is labeled 
@@ -189,7 +363,7 @@ public abstract class Graph {
 	 */
 	public boolean hasVertex(String s)
 	{
-		return vertexLabels.containsValue(s);
+		return labelIndices.containsKey(s);
 	}
 	
 	/**
@@ -198,9 +372,13 @@ public abstract class Graph {
 	 * @param The label to be assigned to this vertex.
 	 */
 	public void addLabel(int v, String s) {
-		if (v < getNumVertices() && !vertexLabels.containsKey(v)) 
+		if (v < getNumVertices() && getLabel(v) == null) 
 		{
-			vertexLabels.put(v, s);
+			while (vertexLabels.size() <= v) {
+				vertexLabels.add(null);
+			}
+			vertexLabels.set(v, s);
+			labelIndices.putIfAbsent(s, v);
 		}
 		else {
 			System.out.println("ERROR: tried to label a vertex that is out of range or already labeled");
@@ -213,7 +391,7 @@ public abstract class Graph {
 	 * @return The String label of this vertex 
 	 */
 	public String getLabel(int v) {
-		if (vertexLabels.containsKey(v)) {
+		if (vertexLabels != null && v >= 0 && v < vertexLabels.size()) {
 			return vertexLabels.get(v);
 		}
 		else return null;
@@ -226,14 +404,29 @@ public abstract class Graph {
 	 * @return The integer index of this vertex 
 	 */
 	public int getIndex(String s) {
-		for (Map.Entry<Integer,String> entry : vertexLabels.entrySet()) {
-			if (entry.getValue().equals(s))
-				return entry.getKey();
+		Integer v = labelIndices.get(s);
+		if (v != null) {
+			return v;
 		}
 		System.out.println("ERROR: No vertex with this label");
 		return -1;
 	}
 	
+	/**
+	 * Report index of vertex with given label, adding a new
+	 * labeled vertex if there is none yet.
+	 * @param The String label of the vertex
+	 * @return The integer index of this vertex 
+	 */
+	public int getOrAddVertex(String s) {
+		Integer v = labelIndices.get(s);
+		if (v != null) {
+			return v;
+		}
+		int index = addVertex();
+		addLabel(index, s);
+		return index;
+	}
 
 	
 	/** Main method provided with some basic tests.  */
@@ -5,6 +5,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.IntConsumer;
 
 /**
  * A class that implements a directed graph.
@@ -12,19 +13,23 @@ import java.util.Set;
  * Vertices are labeled by integers 0 .. n-1
  * and may also have String labels.
  * The edges of the graph are not labeled.
- * Representation of edges via adjacency lists.
+ * Representation of edges via adjacency lists, kept both for the
+ * outgoing and the incoming edges of each vertex.
  *
  * @author UCSD MOOC development team and YOU
  */
 public class GraphAdjList extends Graph
 {
     private Map<Integer, ArrayList<Integer>> adjListsMap;
+    // The start points of the edges ending at each vertex
+    private Map<Integer, ArrayList<Integer>> inAdjListsMap;
 
     /**
      * Create a new empty Graph
      */
     public GraphAdjList() {
         adjListsMap = new HashMap<Integer, ArrayList<Integer>>();
+        inAdjListsMap = new HashMap<Integer, ArrayList<Integer>>();
     }
 
     /**
@@ -34,6 +39,7 @@ public class GraphAdjList extends Graph
         int v = getNumVertices();
         ArrayList<Integer> neighbors = new ArrayList<Integer>();
         adjListsMap.put(v, neighbors);
+        inAdjListsMap.put(v, new ArrayList<Integer>());
     }
 
     /**
@@ -44,6 +50,7 @@ public class GraphAdjList extends Graph
      */
     public void implementAddEdge(int v, int w) {
         (adjListsMap.get(v)).add(w);
+        (inAdjListsMap.get(w)).add(v);
     }
 
     /**
@@ -66,25 +73,35 @@ public class GraphAdjList extends Graph
      * If there are multiple edges from another vertex
      * to this one, the neighbor
      * appears once in the list for each of these edges.
+     * The in-neighbors are listed in the order their edges were added.
      *
      * @param v the index of vertex.
      * @return List<Integer> a list of indices of vertices.
      */
     public List<Integer> getInNeighbors(int v) {
-        List<Integer> inNeighbors = new ArrayList<Integer>();
-
-        for (int u : adjListsMap.keySet()) {
-            //iterate through all edges in u's adjacency list and
-            //add u to the inNeighbor list of v whenever an edge
-            //with startpoint u has endpoint v.
-            for (int w : adjListsMap.get(u)) {
-                if (v == w) {
-                    inNeighbors.add(u);
-                }
-            }
+        return new ArrayList<Integer>(inAdjListsMap.get(v));
+    }
+
+    public void forEachNeighbor(int v, IntConsumer visitor) {
+        ArrayList<Integer> neighbors = adjListsMap.get(v);
+        for (int i = 0; i < neighbors.size(); i++) {
+            visitor.accept(neighbors.get(i));
         }
+    }
 
-        return inNeighbors;
+    public void forEachInNeighbor(int v, IntConsumer visitor) {
+        ArrayList<Integer> inNeighbors = inAdjListsMap.get(v);
+        for (int i = 0; i < inNeighbors.size(); i++) {
+            visitor.accept(inNeighbors.get(i));
+        }
+    }
+
+    public int getOutDegree(int v) {
+        return adjListsMap.get(v).size();
+    }
+
+    public int getInDegree(int v) {
+        return inAdjListsMap.get(v).size();
     }
 
     /**
@@ -96,14 +113,9 @@ public class GraphAdjList extends Graph
      */
     public List<Integer> getDistance2(int v) {
 
-        List<Integer> neightbors = adjListsMap.get(v);
-
         List<Integer> allNeightbors = new ArrayList<Integer>();
 
-        for (int i : neightbors) {
-            List<Integer> twoHopNeightbors = this.getNeighbors(i);
-            allNeightbors.addAll(twoHopNeightbors);
-        }
+        forEachNeighbor(v, i -> allNeightbors.addAll(adjListsMap.get(i)));
 
         return allNeightbors;
     }
@@ -1,10 +1,15 @@
 package basicgraph;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.IntConsumer;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * A class that implements a directed graph.
@@ -12,20 +17,45 @@ import java.util.Set;
  * Vertices are labeled by integers 0 .. n-1
  * and may also have String labels.
  * The edges of the graph are not labeled.
- * Representation of edges via an adjacency matrix.
+ * Representation of edges via an adjacency matrix, packed into bitsets:
+ * bit w of row v is set when there is an edge from v to w, and the
+ * columns are kept as bitsets too for the in-neighbors.  The few entries
+ * with parallel edges keep their count in a separate map.
  *
  * @author UCSD MOOC development team and YOU
  */
 public class GraphAdjMatrix extends Graph {
 
     private final int defaultNumVertices = 5;
-    private int[][] adjMatrix;
+    // Bit w of rows[v] and bit v of columns[w] are set when there is an edge from v to w
+    private long[][] rows;
+    private long[][] columns;
+    // The number of edges from v to w, keyed by entry(v, w), where it is
+    // more than one; bit w of multiRows[v] is set for those entries, so
+    // the map is only consulted for them
+    private Map<Long, Integer> multiEdges;
+    private long[][] multiRows;
+    private int[] outDegrees;
+    private int[] inDegrees;
 
     /**
      * Create a new empty Graph
      */
     public GraphAdjMatrix() {
-        adjMatrix = new int[defaultNumVertices][defaultNumVertices];
+        rows = new long[defaultNumVertices][words(defaultNumVertices)];
+        columns = new long[defaultNumVertices][words(defaultNumVertices)];
+        multiRows = new long[defaultNumVertices][words(defaultNumVertices)];
+        multiEdges = new HashMap<Long, Integer>();
+        outDegrees = new int[defaultNumVertices];
+        inDegrees = new int[defaultNumVertices];
+    }
+
+    private static int words(int bits) {
+        return (bits + 63) >>> 6;
+    }
+
+    private static long entry(int v, int w) {
+        return ((long) v << 32) | w;
     }
 
     /**
@@ -35,27 +65,52 @@ public class GraphAdjMatrix extends Graph {
      */
     public void implementAddVertex() {
         int v = getNumVertices();
-        if (v >= adjMatrix.length) {
-            int[][] newAdjMatrix = new int[v * 2][v * 2];
-            for (int i = 0; i < adjMatrix.length; i++) {
-                for (int j = 0; j < adjMatrix.length; j++) {
-                    newAdjMatrix[i][j] = adjMatrix[i][j];
-                }
+        if (v >= rows.length) {
+            int capacity = v * 2;
+            int newWords = words(capacity);
+            rows = Arrays.copyOf(rows, capacity);
+            columns = Arrays.copyOf(columns, capacity);
+            multiRows = Arrays.copyOf(multiRows, capacity);
+            outDegrees = Arrays.copyOf(outDegrees, capacity);
+            inDegrees = Arrays.copyOf(inDegrees, capacity);
+            for (int i = 0; i < capacity; i++) {
+                rows[i] = rows[i] == null ? new long[newWords] : Arrays.copyOf(rows[i], newWords);
+                columns[i] = columns[i] == null ? new long[newWords] : Arrays.copyOf(columns[i], newWords);
+                multiRows[i] = multiRows[i] == null ? new long[newWords] : Arrays.copyOf(multiRows[i], newWords);
             }
-            adjMatrix = newAdjMatrix;
         }
     }
 
     /**
      * Implement the abstract method for adding an edge.
      * Allows for multiple edges between two points:
-     * the entry at row v, column w stores the number of such edges.
+     * the count of edges from v to w is kept where it is more than one.
      *
      * @param v the index of the start point for the edge.
      * @param w the index of the end point for the edge.
      */
     public void implementAddEdge(int v, int w) {
-        adjMatrix[v][w] += 1;
+        outDegrees[v]++;
+        inDegrees[w]++;
+        if ((rows[v][w >>> 6] & (1L << w)) != 0) {
+            multiEdges.merge(entry(v, w), 2, (count, two) -> count + 1);
+            multiRows[v][w >>> 6] |= 1L << w;
+        }
+        else {
+            rows[v][w >>> 6] |= 1L << w;
+            columns[w][v >>> 6] |= 1L << v;
+        }
+    }
+
+    // The number of edges from v to w
+    private int count(int v, int w) {
+        if ((rows[v][w >>> 6] & (1L << w)) == 0) {
+            return 0;
+        }
+        if ((multiRows[v][w >>> 6] & (1L << w)) == 0) {
+            return 1;
+        }
+        return multiEdges.get(entry(v, w));
     }
 
     /**
@@ -70,11 +125,7 @@ public class GraphAdjMatrix extends Graph {
      */
     public List<Integer> getNeighbors(int v) {
         List<Integer> neighbors = new ArrayList<Integer>();
-        for (int i = 0; i < getNumVertices(); i++) {
-            for (int j = 0; j < adjMatrix[v][i]; j++) {
-                neighbors.add(i);
-            }
-        }
+        forEachNeighbor(v, neighbors::add);
         return neighbors;
     }
 
@@ -90,32 +141,95 @@ public class GraphAdjMatrix extends Graph {
      */
     public List<Integer> getInNeighbors(int v) {
         List<Integer> inNeighbors = new ArrayList<Integer>();
-        for (int i = 0; i < getNumVertices(); i++) {
-            for (int j = 0; j < adjMatrix[i][v]; j++) {
-                inNeighbors.add(i);
+        forEachInNeighbor(v, inNeighbors::add);
+        return inNeighbors;
+    }
+
+    public void forEachNeighbor(int v, IntConsumer visitor) {
+        long[] row = rows[v];
+        for (int word = 0; word < row.length; word++) {
+            for (long bits = row[word]; bits != 0; bits &= bits - 1) {
+                int w = (word << 6) + Long.numberOfTrailingZeros(bits);
+                for (int j = count(v, w); j > 0; j--) {
+                    visitor.accept(w);
+                }
+            }
+        }
+    }
+
+    public void forEachInNeighbor(int v, IntConsumer visitor) {
+        long[] column = columns[v];
+        for (int word = 0; word < column.length; word++) {
+            for (long bits = column[word]; bits != 0; bits &= bits - 1) {
+                int u = (word << 6) + Long.numberOfTrailingZeros(bits);
+                for (int j = count(u, v); j > 0; j--) {
+                    visitor.accept(u);
+                }
             }
         }
-        return inNeighbors;
+    }
+
+    public int getOutDegree(int v) {
+        return outDegrees[v];
+    }
+
+    public int getInDegree(int v) {
+        return inDegrees[v];
     }
 
     /**
      * Implement the abstract method for finding all
      * vertices reachable by two hops from v.
-     * Use matrix multiplication to record length 2 paths.
+     * Each vertex appears once for every path of length 2 to it.
      *
      * @param v the index of vertex.
      * @return List<Integer> a list of indices of vertices.
      */
     public List<Integer> getDistance2(int v) {
         List<Integer> neightbors = new ArrayList<Integer>();
-        for (int i = 0; i < this.getNumVertices(); i++) {
-            for (int j = 0; j < adjMatrix[v][i]; j++) {
-                List<Integer> items = this.getNeighbors(i);
-                neightbors.addAll(items);
+        forEachNeighbor(v, i -> forEachNeighbor(i, neightbors::add));
+
+        return neightbors;
+    }
+
+    /**
+     * Find the set of vertices reachable by two hops from v,
+     * as the OR of the rows of the out-neighbors of v.
+     *
+     * @param v the index of vertex.
+     * @return BitSet with a bit set for each such vertex.
+     */
+    public BitSet getDistance2Set(int v) {
+        return getDistanceK(v, 2);
+    }
+
+    /**
+     * The out-neighbors of a set of vertices are the OR of their rows.
+     */
+    protected boolean expandFrontier(long[] frontier, long[] next, int words) {
+        boolean any = false;
+        for (int word = 0; word < words; word++) {
+            for (long bits = frontier[word]; bits != 0; bits &= bits - 1) {
+                long[] row = rows[(word << 6) + Long.numberOfTrailingZeros(bits)];
+                for (int k = 0; k < words; k++) {
+                    next[k] |= row[k];
+                }
+                any = true;
             }
         }
+        return any;
+    }
 
-        return neightbors;
+    /**
+     * Find the sets of vertices reachable by two hops from
+     * every vertex, computing the vertices in parallel.
+     *
+     * @return List<BitSet> the set of each vertex, by index.
+     */
+    public List<BitSet> getAllDistance2Sets() {
+        return IntStream.range(0, getNumVertices()).parallel()
+                .mapToObj(this::getDistance2Set)
+                .collect(Collectors.toList());
     }
 
     /**
@@ -130,7 +244,7 @@ public class GraphAdjMatrix extends Graph {
         for (int i = 0; i < dim; i++) {
             s += "\n\t" + i + ": ";
             for (int j = 0; j < dim; j++) {
-                s += adjMatrix[i][j] + ", ";
+                s += count(i, j) + ", ";
             }
         }
         return s;
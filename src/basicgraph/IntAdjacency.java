@@ -0,0 +1,194 @@
+package basicgraph;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+/**
+ * A class that implements a directed graph.
+ * The graph may have self-loops, parallel edges.
+ * Vertices are labeled by integers 0 .. n-1
+ * and may also have String labels.
+ * The edges of the graph are not labeled.
+ * Representation of edges via adjacency lists of primitive ints,
+ * for the outgoing and the incoming edges of each vertex, so no
+ * neighbor is ever boxed in the graph itself.  The neighbor lists
+ * returned are read only views of these arrays rather than copies,
+ * and forEachNeighbor visits the neighbors without any list at all.
+ *
+ * @author UCSD MOOC development team and YOU
+ */
+public class IntAdjacency extends Graph
+{
+    private static final int INITIAL_CAPACITY = 4;
+
+    private int[][] outLists = new int[INITIAL_CAPACITY][];
+    private int[] outSizes = new int[INITIAL_CAPACITY];
+    private int[][] inLists = new int[INITIAL_CAPACITY][];
+    private int[] inSizes = new int[INITIAL_CAPACITY];
+
+    /**
+     * Implement the abstract method for adding a vertex.
+     * The vertex arrays double when full to amortize cost.
+     */
+    public void implementAddVertex() {
+        int v = getNumVertices();
+        if (v == outLists.length) {
+            int capacity = v * 2;
+            outLists = Arrays.copyOf(outLists, capacity);
+            outSizes = Arrays.copyOf(outSizes, capacity);
+            inLists = Arrays.copyOf(inLists, capacity);
+            inSizes = Arrays.copyOf(inSizes, capacity);
+        }
+        outLists[v] = new int[INITIAL_CAPACITY];
+        inLists[v] = new int[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Implement the abstract method for adding an edge.
+     *
+     * @param v the index of the start point for the edge.
+     * @param w the index of the end point for the edge.
+     */
+    public void implementAddEdge(int v, int w) {
+        if (outSizes[v] == outLists[v].length) {
+            outLists[v] = Arrays.copyOf(outLists[v], outSizes[v] * 2);
+        }
+        outLists[v][outSizes[v]++] = w;
+        if (inSizes[w] == inLists[w].length) {
+            inLists[w] = Arrays.copyOf(inLists[w], inSizes[w] * 2);
+        }
+        inLists[w][inSizes[w]++] = v;
+    }
+
+    /**
+     * Implement the abstract method for finding all
+     * out-neighbors of a vertex.
+     * If there are multiple edges between the vertex
+     * and one of its out-neighbors, this neighbor
+     * appears once in the list for each of these edges.
+     *
+     * @param v the index of vertex.
+     * @return List<Integer> a read only view of the indices of vertices.
+     */
+    public List<Integer> getNeighbors(int v) {
+        return new IntListView(outLists[v], outSizes[v]);
+    }
+
+    /**
+     * Implement the abstract method for finding all
+     * in-neighbors of a vertex.
+     * If there are multiple edges from another vertex
+     * to this one, the neighbor
+     * appears once in the list for each of these edges.
+     *
+     * @param v the index of vertex.
+     * @return List<Integer> a read only view of the indices of vertices.
+     */
+    public List<Integer> getInNeighbors(int v) {
+        return new IntListView(inLists[v], inSizes[v]);
+    }
+
+    public int getOutDegree(int v) {
+        return outSizes[v];
+    }
+
+    public int getInDegree(int v) {
+        return inSizes[v];
+    }
+
+    /**
+     * Visit the out-neighbors of a vertex, once for each edge.
+     *
+     * @param v the index of vertex.
+     * @param visitor receives the index of each out-neighbor.
+     */
+    public void forEachNeighbor(int v, IntConsumer visitor) {
+        int[] list = outLists[v];
+        for (int i = 0, n = outSizes[v]; i < n; i++) {
+            visitor.accept(list[i]);
+        }
+    }
+
+    /**
+     * Visit the in-neighbors of a vertex, once for each edge.
+     *
+     * @param v the index of vertex.
+     * @param visitor receives the index of each in-neighbor.
+     */
+    public void forEachInNeighbor(int v, IntConsumer visitor) {
+        int[] list = inLists[v];
+        for (int i = 0, n = inSizes[v]; i < n; i++) {
+            visitor.accept(list[i]);
+        }
+    }
+
+    /**
+     * Implement the abstract method for finding all
+     * vertices reachable by two hops from v.
+     * Each vertex appears once for every path of length 2 to it.
+     *
+     * @param v the index of vertex.
+     * @return List<Integer> a list of indices of vertices.
+     */
+    public List<Integer> getDistance2(int v) {
+        int size = 0;
+        int[] out = outLists[v];
+        for (int i = 0; i < outSizes[v]; i++) {
+            size += outSizes[out[i]];
+        }
+        int[] twoHop = new int[size];
+        int n = 0;
+        for (int i = 0; i < outSizes[v]; i++) {
+            int u = out[i];
+            System.arraycopy(outLists[u], 0, twoHop, n, outSizes[u]);
+            n += outSizes[u];
+        }
+        return new IntListView(twoHop, n);
+    }
+
+    /**
+     * Generate string representation of adjacency list
+     *
+     * @return the String
+     */
+    public String adjacencyString() {
+        StringBuilder s = new StringBuilder("Adjacency list");
+        s.append(" (size ").append(getNumVertices()).append("+").append(getNumEdges()).append(" integers):");
+
+        for (int v = 0; v < getNumVertices(); v++) {
+            s.append("\n\t").append(v).append(": ");
+            for (int i = 0; i < outSizes[v]; i++) {
+                s.append(outLists[v][i]).append(", ");
+            }
+        }
+        return s.toString();
+    }
+
+    /**
+     * A read only list over the first size entries of an int array,
+     * which is not copied.  Edges added after the view was made are
+     * not part of it.
+     */
+    private static class IntListView extends AbstractList<Integer> {
+        private final int[] values;
+        private final int size;
+
+        IntListView(int[] values, int size) {
+            this.values = values;
+            this.size = size;
+        }
+
+        public Integer get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            }
+            return values[index];
+        }
+
+        public int size() {
+            return size;
+        }
+    }
+}
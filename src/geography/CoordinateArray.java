@@ -0,0 +1,137 @@
+package geography;
+
+import java.util.List;
+
+/**
+ * A fixed set of points with the trigonometry of each computed once, for
+ * code which measures many distances between the same points.
+ *
+ * Each point keeps its latitude and longitude in radians, the cosine of
+ * its latitude and its position as a unit vector.  distance gives the same
+ * great circle distance as GeographicPoint.distance without any call to
+ * toRadians or cos.  lowerBound gives the straight line (chord) distance
+ * between the points through the earth, which is never more than the
+ * distance along the surface and costs three multiplications and a square
+ * root; it is meant for search heuristics, which need a lower bound.
+ *
+ * The bulk methods measure from one point to every point of the array.
+ * Their loops are branch free so that the JIT can vectorize them.
+ */
+public class CoordinateArray {
+
+	/** The radius of the earth in km, as used by GeographicPoint. */
+	public static final double EARTH_RADIUS = 6373;
+
+	private final int size;
+	private final double[] latRad;
+	private final double[] lonRad;
+	private final double[] cosLat;
+	private final double[] x;
+	private final double[] y;
+	private final double[] z;
+
+	/**
+	 * @param points The points, which keep their index in the list.
+	 */
+	public CoordinateArray(List<GeographicPoint> points)
+	{
+		size = points.size();
+		latRad = new double[size];
+		lonRad = new double[size];
+		cosLat = new double[size];
+		x = new double[size];
+		y = new double[size];
+		z = new double[size];
+		for (int i = 0; i < size; i++) {
+			GeographicPoint pt = points.get(i);
+			latRad[i] = Math.toRadians(pt.getX());
+			lonRad[i] = Math.toRadians(pt.getY());
+			cosLat[i] = Math.cos(latRad[i]);
+			x[i] = cosLat[i] * Math.cos(lonRad[i]);
+			y[i] = cosLat[i] * Math.sin(lonRad[i]);
+			z[i] = Math.sin(latRad[i]);
+		}
+	}
+
+	/** @return The number of points. */
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * The great circle distance between two points.
+	 * @return The distance in km.
+	 */
+	public double distance(int i, int j)
+	{
+		return haversine(latRad[i], lonRad[i], cosLat[i], latRad[j], lonRad[j], cosLat[j]);
+	}
+
+	/**
+	 * A lower bound on the great circle distance between two points.
+	 * @return The chord distance in km.
+	 */
+	public double lowerBound(int i, int j)
+	{
+		return chord(x[i], y[i], z[i], x[j], y[j], z[j]);
+	}
+
+	/**
+	 * The great circle distances from one point to every point.
+	 * @param i The point to measure from.
+	 * @param out Receives the distance in km to point j at index j.
+	 */
+	public void distances(int i, double[] out)
+	{
+		double lat1 = latRad[i];
+		double lon1 = lonRad[i];
+		double cos1 = cosLat[i];
+		for (int j = 0; j < size; j++) {
+			out[j] = haversine(lat1, lon1, cos1, latRad[j], lonRad[j], cosLat[j]);
+		}
+	}
+
+	/**
+	 * Lower bounds on the great circle distances from one point to every
+	 * point.
+	 * @param i The point to measure from.
+	 * @param out Receives the chord distance in km to point j at index j.
+	 */
+	public void lowerBounds(int i, double[] out)
+	{
+		double x1 = x[i];
+		double y1 = y[i];
+		double z1 = z[i];
+		for (int j = 0; j < size; j++) {
+			double dx = x1 - x[j];
+			double dy = y1 - y[j];
+			double dz = z1 - z[j];
+			out[j] = EARTH_RADIUS * Math.sqrt(dx * dx + dy * dy + dz * dz);
+		}
+	}
+
+	/**
+	 * The chord distance between two points given as unit vectors.
+	 * @return The distance in km.
+	 */
+	public static double chord(double x1, double y1, double z1,
+			double x2, double y2, double z2)
+	{
+		double dx = x1 - x2;
+		double dy = y1 - y2;
+		double dz = z1 - z2;
+		return EARTH_RADIUS * Math.sqrt(dx * dx + dy * dy + dz * dz);
+	}
+
+	// The haversine formula of GeographicPoint.distance, from radians and
+	// the cosines of the latitudes.
+	private static double haversine(double lat1, double lon1, double cos1,
+			double lat2, double lon2, double cos2)
+	{
+		double sinLat = Math.sin((lat2 - lat1) / 2);
+		double sinLon = Math.sin((lon2 - lon1) / 2);
+		double a = sinLat * sinLat + cos1 * cos2 * sinLon * sinLon;
+		return 2 * EARTH_RADIUS * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+	}
+}
@@ -0,0 +1,338 @@
+package geography;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Columnar storage for the intermediate geometry of many road segments.
+ *
+ * The points of every segment are kept in one byte array, as fixed point
+ * coordinates (1e-7 degrees, the precision of the .map files and of OSM)
+ * delta encoded against the previous point and written as zigzag
+ * varints.  A segment is addressed by the id returned from add, and its
+ * points are read back through a list view which decodes on the fly, so
+ * no GeographicPoint is kept for the geometry of a loaded map.
+ *
+ * Every point also keeps the lowest zoom level at which it is needed on
+ * the map, from a Douglas-Peucker pass over the segment when it is added
+ * (see PolylineSimplifier), so the geometry can be read back simplified
+ * for any zoom without further work.
+ */
+public class GeometryStore {
+
+	private static final double SCALE = 1e7;
+
+	private byte[] bytes;
+	private int numBytes;
+
+	// The zoom level of each point
+	private byte[] zoom;
+
+	// Byte offset and first point index of each geometry, plus a sentinel
+	private int[] byteStart;
+	private int[] pointStart;
+	// The last point of each geometry, where reading backwards starts
+	private int[] lastLat;
+	private int[] lastLon;
+	private int numGeometries;
+
+	/**
+	 * Create a store sized for the geometry of a whole map.
+	 */
+	public GeometryStore()
+	{
+		this(64, 256);
+	}
+
+	/**
+	 * Create a store sized for a few geometries; it grows as needed.
+	 * @param geometries The number of geometries expected.
+	 * @param points The total number of points expected.
+	 */
+	public GeometryStore(int geometries, int points)
+	{
+		bytes = new byte[Math.max(8, points * 4)];
+		zoom = new byte[Math.max(1, points)];
+		byteStart = new int[Math.max(1, geometries) + 1];
+		pointStart = new int[byteStart.length];
+		lastLat = new int[byteStart.length];
+		lastLon = new int[byteStart.length];
+	}
+
+	/**
+	 * Append the points of one geometry.  Its first and last points are
+	 * taken as the ends of the line when computing zoom levels.
+	 * @param points The points, in order.
+	 * @return The id of the geometry.
+	 */
+	public int add(List<GeographicPoint> points)
+	{
+		return add(null, points, null);
+	}
+
+	/**
+	 * Append the points of one geometry which lies between two end points.
+	 * @param start The point before the geometry, or null.
+	 * @param points The points, in order.
+	 * @param end The point after the geometry, or null.
+	 * @return The id of the geometry.
+	 */
+	public int add(GeographicPoint start, List<GeographicPoint> points, GeographicPoint end)
+	{
+		if (numGeometries + 1 == byteStart.length) {
+			byteStart = Arrays.copyOf(byteStart, byteStart.length * 2);
+			pointStart = Arrays.copyOf(pointStart, pointStart.length * 2);
+			lastLat = Arrays.copyOf(lastLat, lastLat.length * 2);
+			lastLon = Arrays.copyOf(lastLon, lastLon.length * 2);
+		}
+		int prevLat = 0;
+		int prevLon = 0;
+		for (GeographicPoint pt : points) {
+			int lat = toFixed(pt.getX());
+			int lon = toFixed(pt.getY());
+			writeVarint(lat - prevLat);
+			writeVarint(lon - prevLon);
+			prevLat = lat;
+			prevLon = lon;
+		}
+		int id = numGeometries++;
+		lastLat[id] = prevLat;
+		lastLon[id] = prevLon;
+		byteStart[numGeometries] = numBytes;
+		pointStart[numGeometries] = pointStart[id] + points.size();
+		addZoomLevels(start, points, end, pointStart[id]);
+		return id;
+	}
+
+	private void addZoomLevels(GeographicPoint start, List<GeographicPoint> points,
+			GeographicPoint end, int first)
+	{
+		if (first + points.size() > zoom.length) {
+			zoom = Arrays.copyOf(zoom, Math.max(zoom.length * 2, first + points.size()));
+		}
+		List<GeographicPoint> line = new ArrayList<GeographicPoint>(points.size() + 2);
+		if (start != null) {
+			line.add(start);
+		}
+		line.addAll(points);
+		if (end != null) {
+			line.add(end);
+		}
+		double[] significance = PolylineSimplifier.significance(line);
+		int offset = start != null ? 1 : 0;
+		for (int i = 0; i < points.size(); i++) {
+			zoom[first + i] = (byte) PolylineSimplifier.minZoom(significance[i + offset],
+					points.get(i).getX());
+		}
+	}
+
+	/** @return The number of points in a geometry. */
+	public int size(int id)
+	{
+		return pointStart[id + 1] - pointStart[id];
+	}
+
+	/**
+	 * Return the points from start to end: start, the points of the
+	 * geometry in order (or in reverse), then end.  The list is a view of
+	 * the store and does not copy the geometry.
+	 * @param id The geometry between start and end.
+	 * @param start The first point of the list.
+	 * @param end The last point of the list.
+	 * @param reversed true to read the geometry from its last point.
+	 * @return An unmodifiable list of size(id) + 2 points.
+	 */
+	public List<GeographicPoint> getPath(int id, GeographicPoint start,
+			GeographicPoint end, boolean reversed)
+	{
+		return new PathView(id, start, end, reversed);
+	}
+
+	/**
+	 * Return the points from start to end which are needed at a zoom
+	 * level, in the same order as getPath.
+	 * @param id The geometry between start and end.
+	 * @param start The first point of the list.
+	 * @param end The last point of the list.
+	 * @param reversed true to read the geometry from its last point.
+	 * @param zoomLevel The zoom level of the map.
+	 * @return A new list, which always includes start and end.
+	 */
+	public List<GeographicPoint> getPath(int id, GeographicPoint start,
+			GeographicPoint end, boolean reversed, int zoomLevel)
+	{
+		int size = size(id);
+		List<GeographicPoint> result = new ArrayList<GeographicPoint>();
+		int i = 0;
+		for (GeographicPoint pt : getPath(id, start, end, reversed)) {
+			// Position i of the path is point i - 1 of the geometry, counted
+			// from the far end when reversed
+			int point = reversed ? size - i : i - 1;
+			if (point < 0 || point >= size || zoom[pointStart[id] + point] <= zoomLevel) {
+				result.add(pt);
+			}
+			i++;
+		}
+		return result;
+	}
+
+	private static int toFixed(double degrees)
+	{
+		return (int) Math.round(degrees * SCALE);
+	}
+
+	private void writeVarint(int value)
+	{
+		if (numBytes + 5 > bytes.length) {
+			bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, numBytes + 5));
+		}
+		int zigzag = (value << 1) ^ (value >> 31);
+		while ((zigzag & ~0x7F) != 0) {
+			bytes[numBytes++] = (byte) ((zigzag & 0x7F) | 0x80);
+			zigzag >>>= 7;
+		}
+		bytes[numBytes++] = (byte) zigzag;
+	}
+
+
+	/**
+	 * The points of one geometry between its two end points.  Iteration
+	 * decodes the varints in either direction: a varint ends at the only
+	 * one of its bytes with the high bit clear, so the deltas can also be
+	 * walked backwards from the last point of the geometry, which the
+	 * store keeps.  Indexed access decodes the whole path once, on the
+	 * first call to get.
+	 */
+	private class PathView extends AbstractList<GeographicPoint> {
+		private final int id;
+		private final GeographicPoint start;
+		private final GeographicPoint end;
+		private final boolean reversed;
+		private GeographicPoint[] decoded;
+
+		PathView(int id, GeographicPoint start, GeographicPoint end, boolean reversed)
+		{
+			this.id = id;
+			this.start = start;
+			this.end = end;
+			this.reversed = reversed;
+		}
+
+		public int size()
+		{
+			return GeometryStore.this.size(id) + 2;
+		}
+
+		public GeographicPoint get(int index)
+		{
+			if (index < 0 || index >= size()) {
+				throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+			}
+			if (decoded == null) {
+				GeographicPoint[] points = new GeographicPoint[size()];
+				int i = 0;
+				for (GeographicPoint pt : this) {
+					points[i++] = pt;
+				}
+				decoded = points;
+			}
+			return decoded[index];
+		}
+
+		public Iterator<GeographicPoint> iterator()
+		{
+			return reversed ? new BackwardIterator() : new ForwardIterator();
+		}
+
+		private class ForwardIterator implements Iterator<GeographicPoint> {
+			private int index;
+			private int pos = byteStart[id];
+			private int lat;
+			private int lon;
+
+			public boolean hasNext()
+			{
+				return index < size();
+			}
+
+			public GeographicPoint next()
+			{
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				int i = index++;
+				if (i == 0) {
+					return start;
+				}
+				if (i == size() - 1) {
+					return end;
+				}
+				lat += readVarint();
+				lon += readVarint();
+				return new GeographicPoint(lat / SCALE, lon / SCALE);
+			}
+
+			private int readVarint()
+			{
+				int zigzag = 0;
+				int shift = 0;
+				byte b;
+				do {
+					b = bytes[pos++];
+					zigzag |= (b & 0x7F) << shift;
+					shift += 7;
+				} while (b < 0);
+				return (zigzag >>> 1) ^ -(zigzag & 1);
+			}
+		}
+
+		private class BackwardIterator implements Iterator<GeographicPoint> {
+			private int index;
+			private int pos = byteStart[id + 1];
+			private int lat = lastLat[id];
+			private int lon = lastLon[id];
+
+			public boolean hasNext()
+			{
+				return index < size();
+			}
+
+			public GeographicPoint next()
+			{
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				int i = index++;
+				if (i == 0) {
+					return start;
+				}
+				if (i == size() - 1) {
+					return end;
+				}
+				GeographicPoint pt = new GeographicPoint(lat / SCALE, lon / SCALE);
+				lon -= readVarintBackward();
+				lat -= readVarintBackward();
+				return pt;
+			}
+
+			private int readVarintBackward()
+			{
+				int last = pos - 1;
+				int first = last;
+				while (first > byteStart[id] && bytes[first - 1] < 0) {
+					first--;
+				}
+				int zigzag = 0;
+				for (int p = last; p >= first; p--) {
+					zigzag = (zigzag << 7) | (bytes[p] & 0x7F);
+				}
+				pos = first;
+				return (zigzag >>> 1) ^ -(zigzag & 1);
+			}
+		}
+	}
+}
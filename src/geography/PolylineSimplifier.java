@@ -0,0 +1,169 @@
+package geography;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Douglas-Peucker simplification of polylines for display on a web map.
+ *
+ * significance runs the algorithm once with a tolerance of zero and
+ * records, for every point, the tolerance below which it is kept: the
+ * distance from the point to the line it splits, capped by that of the
+ * point which split the enclosing range.  Simplifying to any tolerance is
+ * then a matter of keeping the points whose significance reaches it, so
+ * the levels of all zooms come from a single pass.
+ *
+ * Zoom levels follow the web Mercator tiles of Google Maps: at zoom z the
+ * world is 256 * 2^z pixels wide at the equator.
+ */
+public class PolylineSimplifier {
+
+	/** The highest zoom level of the map. */
+	public static final int MAX_ZOOM = 22;
+
+	/** The level of points which are never needed, as they lie on the line. */
+	public static final int NEVER = MAX_ZOOM + 1;
+
+	// The circumference of the earth at the equator, in km
+	private static final double EQUATOR = 2 * Math.PI * CoordinateArray.EARTH_RADIUS;
+
+	/**
+	 * The Douglas-Peucker significance of every point of a polyline.  The
+	 * end points have an infinite significance, as they are always kept.
+	 * @param points The polyline.
+	 * @return The significance of each point, in km.
+	 */
+	public static double[] significance(List<GeographicPoint> points)
+	{
+		int n = points.size();
+		double[] result = new double[n];
+		if (n == 0) {
+			return result;
+		}
+
+		// Work in km on a plane tangent at the first point
+		double cosLat = Math.cos(Math.toRadians(points.get(0).getX()));
+		double kmPerDegree = EQUATOR / 360;
+		double[] x = new double[n];
+		double[] y = new double[n];
+		for (int i = 0; i < n; i++) {
+			GeographicPoint pt = points.get(i);
+			x[i] = pt.getY() * kmPerDegree * cosLat;
+			y[i] = pt.getX() * kmPerDegree;
+		}
+
+		result[0] = Double.POSITIVE_INFINITY;
+		result[n - 1] = Double.POSITIVE_INFINITY;
+		// Ranges still to split, as (first, last) pairs with the cap of each
+		int[] stack = new int[64];
+		double[] caps = new double[32];
+		int top = 0;
+		if (n > 2) {
+			stack[0] = 0;
+			stack[1] = n - 1;
+			caps[0] = Double.POSITIVE_INFINITY;
+			top = 1;
+		}
+		while (top > 0) {
+			top--;
+			int first = stack[top * 2];
+			int last = stack[top * 2 + 1];
+			double cap = caps[top];
+
+			int split = first + 1;
+			double max = -1;
+			for (int i = first + 1; i < last; i++) {
+				double d = segmentDistance(x[i], y[i], x[first], y[first], x[last], y[last]);
+				if (d > max) {
+					max = d;
+					split = i;
+				}
+			}
+			double value = Math.min(max, cap);
+			result[split] = value;
+
+			if (top + 2 > caps.length) {
+				stack = Arrays.copyOf(stack, stack.length * 2);
+				caps = Arrays.copyOf(caps, caps.length * 2);
+			}
+			if (split - first > 1) {
+				stack[top * 2] = first;
+				stack[top * 2 + 1] = split;
+				caps[top++] = value;
+			}
+			if (last - split > 1) {
+				stack[top * 2] = split;
+				stack[top * 2 + 1] = last;
+				caps[top++] = value;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * The size of a pixel on the ground.
+	 * @param zoom The zoom level.
+	 * @param latitude The latitude, in degrees.
+	 * @return The width of a pixel, in km.
+	 */
+	public static double pixelSize(int zoom, double latitude)
+	{
+		return EQUATOR * Math.cos(Math.toRadians(latitude)) / (256 * Math.pow(2, zoom));
+	}
+
+	/**
+	 * The lowest zoom level at which a point of the given significance is
+	 * at least a pixel off the simplified line.
+	 * @param significance The significance of the point, in km.
+	 * @param latitude The latitude of the point, in degrees.
+	 * @return A zoom level from 0 to MAX_ZOOM, or NEVER.
+	 */
+	public static int minZoom(double significance, double latitude)
+	{
+		if (significance == Double.POSITIVE_INFINITY) {
+			return 0;
+		}
+		if (!(significance > 0)) {
+			return NEVER;
+		}
+		double zoom = Math.ceil(Math.log(pixelSize(0, latitude) / significance) / Math.log(2));
+		if (zoom > MAX_ZOOM) {
+			return NEVER;
+		}
+		return (int) Math.max(0, zoom);
+	}
+
+	/**
+	 * Simplify a polyline.
+	 * @param points The polyline.
+	 * @param tolerance The largest distance a dropped point may be from
+	 * the simplified line, in km.
+	 * @return The points kept, in order, always including both ends.
+	 */
+	public static List<GeographicPoint> simplify(List<GeographicPoint> points, double tolerance)
+	{
+		double[] sig = significance(points);
+		List<GeographicPoint> result = new ArrayList<GeographicPoint>();
+		for (int i = 0; i < sig.length; i++) {
+			if (sig[i] >= tolerance) {
+				result.add(points.get(i));
+			}
+		}
+		return result;
+	}
+
+	// The distance from (px, py) to the segment from (ax, ay) to (bx, by)
+	private static double segmentDistance(double px, double py, double ax, double ay,
+			double bx, double by)
+	{
+		double dx = bx - ax;
+		double dy = by - ay;
+		double len2 = dx * dx + dy * dy;
+		double t = len2 == 0 ? 0 : ((px - ax) * dx + (py - ay) * dy) / len2;
+		t = Math.max(0, Math.min(1, t));
+		double ex = ax + t * dx - px;
+		double ey = ay + t * dy - py;
+		return Math.sqrt(ex * ex + ey * ey);
+	}
+}
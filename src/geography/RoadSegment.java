@@ -1,7 +1,6 @@
 package geography;
 
-import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Collection;
 import java.util.List;
 
 /** 
@@ -16,7 +15,9 @@ public class RoadSegment {
 	private GeographicPoint point1;
 	private GeographicPoint point2;
 	
-	private List<GeographicPoint> geometryPoints;
+	// The intermediate geometry, from point1 to point2
+	private GeometryStore geometry;
+	private int geometryId;
 	
 	private String roadName;
 	private String roadType;
@@ -24,13 +25,28 @@ public class RoadSegment {
 	// Length in km
 	private double length;
 	
+	// Relative difference below which two lengths are the same road
+	private static final double SAME_LENGTH = 1e-9;
+	
 	public RoadSegment(GeographicPoint pt1, GeographicPoint pt2, 
 						List<GeographicPoint> geometry, String roadName,
 						String roadType, double length)
+	{
+		this(pt1, pt2, new GeometryStore(1, geometry.size()), 0, roadName, roadType, length);
+		this.geometryId = this.geometry.add(pt1, geometry, pt2);
+	}
+
+	/** Create a segment whose geometry is already in a GeometryStore,
+	 * which may be shared by many segments.
+	 */
+	public RoadSegment(GeographicPoint pt1, GeographicPoint pt2,
+						GeometryStore geometry, int geometryId,
+						String roadName, String roadType, double length)
 	{
 		point1 = pt1;
 		point2 = pt2;
-		geometryPoints = new ArrayList<GeographicPoint>(geometry);
+		this.geometry = geometry;
+		this.geometryId = geometryId;
 		this.roadName = roadName;
 		this.roadType = roadType;
 		this.length = length;
@@ -38,7 +54,7 @@ public class RoadSegment {
 	
 	
 	/** Return all of the points from start to end in that order
-	 * on this segment.
+	 * on this segment.  The list is a read only view of the geometry.
 	 * @param start
 	 * @param end
 	 * @return
@@ -46,24 +62,38 @@ public class RoadSegment {
 	public List<GeographicPoint> getPoints(GeographicPoint start, 
 											GeographicPoint end)
 	{
-		List<GeographicPoint> allPoints = new ArrayList<GeographicPoint>();
 		if (point1.equals(start) && point2.equals(end)) {
-			allPoints.add(start);
-			allPoints.addAll(geometryPoints);
-			allPoints.add(end);
+			return geometry.getPath(geometryId, start, end, false);
 		}
 		else if (point2.equals(start) && point1.equals(end)) {
-			allPoints.add(end);
-			allPoints.addAll(geometryPoints);
-			allPoints.add(start);
-			Collections.reverse(allPoints);
+			return geometry.getPath(geometryId, start, end, true);
+		}
+		else {
+			throw new IllegalArgumentException("Start and end points do not "
+					+ "match end points of segment");
+		}
+	}
+	
+	/** Return the points from start to end which are needed to draw
+	 * this segment on a map at the given zoom level.
+	 * @param start
+	 * @param end
+	 * @param zoom The zoom level of the map
+	 * @return
+	 */
+	public List<GeographicPoint> getPoints(GeographicPoint start,
+											GeographicPoint end, int zoom)
+	{
+		if (point1.equals(start) && point2.equals(end)) {
+			return geometry.getPath(geometryId, start, end, false, zoom);
+		}
+		else if (point2.equals(start) && point1.equals(end)) {
+			return geometry.getPath(geometryId, start, end, true, zoom);
 		}
 		else {
 			throw new IllegalArgumentException("Start and end points do not "
 					+ "match end points of segment");
 		}
-		
-		return allPoints;
 	}
 	
 	/** Two road segments are equal if they have the same start and end points
@@ -87,28 +117,74 @@ public class RoadSegment {
 		return this.roadName.equals(other.roadName) && ptsEqual && this.length == other.length;
 	}
 	
-	// get hashCode
+	// get hashCode.  It must not depend on the direction, as the two
+	// directions of a road are equal, but it includes the name so the
+	// segments of different roads between two points spread out.
 	public int hashCode()
 	{
-		return point1.hashCode() + point2.hashCode();
+		return (point1.hashCode() + point2.hashCode()) * 31 + roadName.hashCode();
 	}
 	
 	// return road segment as String
 	public String toString()
 	{
 		String toReturn = this.roadName + ", " +this.roadType;
-		toReturn += " [" + point1;
-		for (GeographicPoint p : this.geometryPoints) {
-			toReturn += "; " + p;
+		toReturn += " [";
+		String separator = "";
+		for (GeographicPoint p : getPoints(point1, point2)) {
+			toReturn += separator + p;
+			separator = "; ";
 		}
-		toReturn += "; " + point2 + "]";
+		toReturn += "]";
 		
 		return toReturn;
 	}
 
+	/** Find the segment of a road between two points.  The segments of
+	 * the two directions of a road may differ in length in the last bits,
+	 * so the length only picks the nearest when several roads match.
+	 * @param segments The segments to search, such as those at start
+	 * @param start One end of the road
+	 * @param end The other end of the road
+	 * @param roadName The name of the road
+	 * @param roadType The type of the road
+	 * @param length The length of the road
+	 * @return The segment, or null if none joins the points
+	 */
+	public static RoadSegment find(Collection<RoadSegment> segments,
+			GeographicPoint start, GeographicPoint end,
+			String roadName, String roadType, double length)
+	{
+		RoadSegment best = null;
+		for (RoadSegment seg : segments) {
+			boolean joins = (seg.point1.equals(start) && seg.point2.equals(end)) ||
+					(seg.point2.equals(start) && seg.point1.equals(end));
+			if (joins && seg.roadName.equals(roadName) && seg.roadType.equals(roadType)
+					&& (best == null || Math.abs(seg.length - length)
+							< Math.abs(best.length - length))) {
+				best = seg;
+			}
+		}
+		return best;
+	}
+	
+	/** Whether two edges between the same points with these lengths
+	 * follow the same geometry, so share one segment.  The two directions
+	 * of a road differ in length in the last bits at most, while the two
+	 * carriageways of a divided road differ in their geometry.
+	 */
+	public static boolean sameLength(double length1, double length2)
+	{
+		return Math.abs(length1 - length2) <= SAME_LENGTH * Math.max(length1, length2);
+	}
+	
 	// get the length of the road segment
 	public double getLength() { return this.length; }
 	
+	public String getRoadName() { return this.roadName; }
+	
+	public String getRoadType() { return this.roadType; }
+	
 	
 	// given one end, return the other.
 	public geography.GeographicPoint getOtherPoint(geography.GeographicPoint point) {
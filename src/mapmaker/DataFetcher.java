@@ -1,40 +1,35 @@
 package mapmaker;
 
+import java.io.BufferedInputStream;
 import java.io.DataOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
-import javax.json.*;
 
 public class DataFetcher {
-    private final String[] HIGHWAYS = {"motorway", "trunk", "primary", "secondary", "tertiary", "unclassified", "residential", "motorway_link", "trunk_link", "primary_link", "secondary_link", "tertiary_link", "living_street"};
+    static final String[] HIGHWAYS = {"motorway", "trunk", "primary", "secondary", "tertiary", "unclassified", "residential", "motorway_link", "trunk_link", "primary_link", "secondary_link", "tertiary_link", "living_street"};
 
     private String query;
     public DataFetcher(float[] bounds) {
         this.query = this.constructQuery(bounds);
     }
 
-    public JsonObject getData() {
-        HttpURLConnection conn = null;
-        try {
-            URL url = new URL("http://overpass-api.de/api/interpreter");
-            conn = (HttpURLConnection)url.openConnection();
-            conn.setDoOutput(true);
-            conn.setRequestMethod("POST");
-            conn.setRequestProperty("Accept-Charset", "utf-8;q=0.7,*;q=0.7");
-            
-            DataOutputStream wr = new DataOutputStream(conn.getOutputStream());
-            wr.writeBytes(this.query);
-            wr.close();
-
-            InputStream is = conn.getInputStream();
-            JsonReader rdr = Json.createReader(is);
-        
-            return rdr.readObject();
-        } catch (Exception e) {
-            System.out.println(e);
-            return null;
-        }
+    /**
+     * Send the query and return the response body, to be read as a stream
+     */
+    public InputStream openData() throws IOException {
+        URL url = new URL("http://overpass-api.de/api/interpreter");
+        HttpURLConnection conn = (HttpURLConnection)url.openConnection();
+        conn.setDoOutput(true);
+        conn.setRequestMethod("POST");
+        conn.setRequestProperty("Accept-Charset", "utf-8;q=0.7,*;q=0.7");
+
+        DataOutputStream wr = new DataOutputStream(conn.getOutputStream());
+        wr.writeBytes(this.query);
+        wr.close();
+
+        return new BufferedInputStream(conn.getInputStream(), 1 << 16);
     }
 
     public String constructQuery(float[] boundsArray) {
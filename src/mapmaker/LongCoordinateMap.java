@@ -0,0 +1,112 @@
+package mapmaker;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash table from OSM node ids to coordinates.
+ * Coordinates are kept as fixed point integers with 7 decimals, which is
+ * the precision OSM stores them with, so a node costs 16 bytes and no
+ * objects are allocated per node.
+ */
+public class LongCoordinateMap {
+    private static final long EMPTY = Long.MIN_VALUE;
+    private static final double SCALE = 1e7;
+
+    private long[] keys;
+    private int[] lats;
+    private int[] lons;
+    private int size;
+    private int mask;
+
+    public LongCoordinateMap() {
+        this(1 << 16);
+    }
+
+    /**
+     * @param expected the number of nodes expected, to size the table
+     */
+    public LongCoordinateMap(int expected) {
+        int capacity = Integer.highestOneBit(Math.max(16, expected * 2 - 1)) << 1;
+        allocate(capacity);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void put(long id, double lat, double lon) {
+        putFixed(id, (int) Math.round(lat * SCALE), (int) Math.round(lon * SCALE));
+    }
+
+    /**
+     * Store a node with coordinates in units of 1e-7 degrees
+     */
+    public void putFixed(long id, int lat, int lon) {
+        if (id == EMPTY) {
+            throw new IllegalArgumentException("Node id out of range: " + id);
+        }
+        if ((size + 1) * 2 > keys.length) {
+            grow();
+        }
+        int slot = slot(id);
+        if (keys[slot] == EMPTY) {
+            keys[slot] = id;
+            size++;
+        }
+        lats[slot] = lat;
+        lons[slot] = lon;
+    }
+
+    /**
+     * @return the index of the node, to be used with getLat and getLon,
+     * or -1 if the node is not in the table
+     */
+    public int indexOf(long id) {
+        int slot = slot(id);
+        return keys[slot] == EMPTY ? -1 : slot;
+    }
+
+    public double getLat(int index) {
+        return lats[index] / SCALE;
+    }
+
+    public double getLon(int index) {
+        return lons[index] / SCALE;
+    }
+
+    private int slot(long id) {
+        int slot = mix(id) & mask;
+        while (keys[slot] != EMPTY && keys[slot] != id) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static int mix(long id) {
+        long h = id * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+        lats = new int[capacity];
+        lons = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        int[] oldLats = lats;
+        int[] oldLons = lons;
+        allocate(oldKeys.length * 2);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int slot = slot(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                lats[slot] = oldLats[i];
+                lons[slot] = oldLons[i];
+            }
+        }
+    }
+}
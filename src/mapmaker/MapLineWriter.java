@@ -0,0 +1,59 @@
+package mapmaker;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes road segments as lines of a .map file:
+ * lat1 lon1 lat2 lon2 "roadName" roadType
+ */
+public class MapLineWriter implements AutoCloseable {
+    private Writer out;
+    private int lines;
+
+    public MapLineWriter(String filename) throws IOException {
+        out = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(filename), StandardCharsets.UTF_8), 1 << 16);
+    }
+
+    /**
+     * Write a way segment, and its reverse unless the road is one way.
+     * Coordinates are in units of 1e-7 degrees.
+     */
+    public void writeRoad(LongCoordinateMap nodes, int start, int end,
+                          String street, String type, String oneway) throws IOException {
+        writeSegment(nodes, start, end, street, type);
+        if (oneway.equals("no")) {
+            writeSegment(nodes, end, start, street, type);
+        }
+    }
+
+    private void writeSegment(LongCoordinateMap nodes, int start, int end,
+                              String street, String type) throws IOException {
+        out.write(Double.toString(nodes.getLat(start)));
+        out.write(' ');
+        out.write(Double.toString(nodes.getLon(start)));
+        out.write(' ');
+        out.write(Double.toString(nodes.getLat(end)));
+        out.write(' ');
+        out.write(Double.toString(nodes.getLon(end)));
+        out.write(" \"");
+        out.write(street);
+        out.write("\" ");
+        out.write(type);
+        out.write(System.lineSeparator());
+        lines++;
+    }
+
+    public int getLineCount() {
+        return lines;
+    }
+
+    public void close() throws IOException {
+        out.close();
+    }
+}
@@ -1,59 +1,30 @@
 package mapmaker;
 
-import java.io.PrintWriter;
-import java.util.HashMap;
-import java.util.List;
-import javax.json.*;
+import java.io.IOException;
+import java.io.InputStream;
 
 public class MapMaker {
     float[] bounds;
-    HashMap<Integer, Location> nodes = new HashMap<Integer, Location>();
 
     public MapMaker(float[] bounds) {
         this.bounds = bounds;
     }
 
+    /**
+     * Fetch the roads within the bounds from the Overpass API and write
+     * them to a .map file.
+     * The response is parsed as a stream in a single pass: nodes go into a
+     * primitive table keyed by their (64 bit) OSM id and way segments are
+     * written out as soon as each way has been read.
+     */
     public boolean parseData(String filename) {
         DataFetcher fetcher = new DataFetcher(bounds);
-        JsonObject data = fetcher.getData();
-
-        JsonArray elements = data.getJsonArray("elements");
-
-        for (JsonObject elem : elements.getValuesAs(JsonObject.class)) {
-            if (elem.getString("type").equals("node")) {
-                nodes.put(elem.getInt("id"), new Location(elem.getJsonNumber("lat").doubleValue(), elem.getJsonNumber("lon").doubleValue()));
-            }
-        }
-
-        PrintWriter outfile;
-        try {
-            outfile = new PrintWriter(filename);
-        } catch (Exception e) {
+        try (InputStream data = fetcher.openData()) {
+            new OsmImporter(bounds).importJson(data, filename);
+        } catch (IOException e) {
             e.printStackTrace();
             return false;
         }
-
-        for (JsonObject elem : elements.getValuesAs(JsonObject.class)) {
-            if (elem.getString("type").equals("way")) {
-                String street = elem.getJsonObject("tags").getString("name", "");
-                String type = elem.getJsonObject("tags").getString("highway", "");
-                String oneway = elem.getJsonObject("tags").getString("oneway", "no");
-                List<JsonNumber> nodelist = elem.getJsonArray("nodes").getValuesAs(JsonNumber.class);
-                for (int i = 0; i < nodelist.size() - 1; i++) {
-                    Location start = nodes.get(nodelist.get(i).intValue());
-                    Location end = nodes.get(nodelist.get(i + 1).intValue());
-                    if (start.outsideBounds(bounds) || end.outsideBounds(bounds)) {
-                        continue;
-                    }
-
-                    outfile.println("" + start + end + "\"" + street + "\" " + type);
-                    if (oneway.equals("no")) {
-                        outfile.println("" + end + start + "\"" + street + "\" " + type);
-                    }
-                }
-            }
-        }
-        outfile.close();
         return true;
     }
 
@@ -78,25 +49,3 @@ public class MapMaker {
         map.parseData("ucsd.map");
     }
 }
-
-class Location {
-    private double lat;
-    private double lon;
-
-    public Location(double lat, double lon) {
-        this.lat = lat;
-        this.lon = lon;
-    }
-
-    public String toString() {
-        return "" + lat + " " + lon + " ";
-    }
-
-    /**
-     * @param bounds [south, west, north, east]
-     */
-    public boolean outsideBounds(float[] bounds) {
-        return (lat < bounds[0] || lat > bounds[2] || lon < bounds[1] || lon > bounds[3]);
-    }
-        
-}
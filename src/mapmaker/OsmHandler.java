@@ -0,0 +1,25 @@
+package mapmaker;
+
+/**
+ * Receives the nodes and ways of an OSM extract as they are read.
+ * Nodes are reported before the ways that use them, as in any sorted
+ * extract.
+ */
+public interface OsmHandler {
+    /**
+     * @param id the node id
+     * @param lat latitude in units of 1e-7 degrees
+     * @param lon longitude in units of 1e-7 degrees
+     */
+    void node(long id, int lat, int lon);
+
+    /**
+     * @param refs the ids of the nodes of the way; only the first refCount
+     *             entries are valid and the array is reused between calls
+     * @param refCount the number of nodes in the way
+     * @param name the name tag, or "" if it is missing
+     * @param highway the highway tag, or null if it is missing
+     * @param oneway the oneway tag, or "no" if it is missing
+     */
+    void way(long[] refs, int refCount, String name, String highway, String oneway);
+}
@@ -0,0 +1,133 @@
+package mapmaker;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Builds a .map file from an OSM extract on disk, either .osm XML or
+ * .osm.pbf, keeping the same highway types as DataFetcher.
+ * The extract is streamed: node coordinates go into a primitive table and
+ * each way is written out as soon as it has been read, so memory is
+ * proportional to the number of nodes and not to the size of the file.
+ */
+public class OsmImporter implements OsmHandler {
+    private final float[] bounds;
+    private final Set<String> highways;
+    private final LongCoordinateMap nodes;
+    private MapLineWriter out;
+    private int missingNodes;
+
+    /**
+     * @param bounds [south, west, north, east], or null to keep every road
+     */
+    public OsmImporter(float[] bounds) {
+        this.bounds = bounds;
+        this.highways = new HashSet<String>(Arrays.asList(DataFetcher.HIGHWAYS));
+        this.nodes = new LongCoordinateMap();
+    }
+
+    /**
+     * Convert an extract into a .map file.
+     * The format is chosen by the extension of the input file.
+     *
+     * @return the number of lines written
+     */
+    public int importFile(String osmFile, String mapFile) throws IOException {
+        if (osmFile.endsWith(".pbf")) {
+            return write(mapFile, () -> new OsmPbfReader().read(osmFile, this));
+        }
+        return write(mapFile, () -> new OsmXmlReader().read(osmFile, this));
+    }
+
+    /**
+     * Convert an Overpass API JSON response into a .map file.
+     *
+     * @return the number of lines written
+     */
+    public int importJson(InputStream in, String mapFile) throws IOException {
+        return write(mapFile, () -> new OsmJsonReader().read(in, this));
+    }
+
+    private interface Source {
+        void read() throws IOException;
+    }
+
+    private int write(String mapFile, Source source) throws IOException {
+        int lines;
+        missingNodes = 0;
+        try (MapLineWriter writer = new MapLineWriter(mapFile)) {
+            out = writer;
+            source.read();
+            lines = writer.getLineCount();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            out = null;
+        }
+        if (missingNodes > 0) {
+            System.out.println("Skipped " + missingNodes + " segments with nodes missing from the extract");
+        }
+        return lines;
+    }
+
+    public void node(long id, int lat, int lon) {
+        nodes.putFixed(id, lat, lon);
+    }
+
+    public void way(long[] refs, int refCount, String name, String highway, String oneway) {
+        if (highway == null || !highways.contains(highway)) {
+            return;
+        }
+        try {
+            for (int i = 0; i < refCount - 1; i++) {
+                int start = nodes.indexOf(refs[i]);
+                int end = nodes.indexOf(refs[i + 1]);
+                if (start < 0 || end < 0) {
+                    missingNodes++;
+                    continue;
+                }
+                if (outsideBounds(start) || outsideBounds(end)) {
+                    continue;
+                }
+                out.writeRoad(nodes, start, end, name, highway, oneway);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private boolean outsideBounds(int node) {
+        if (bounds == null) {
+            return false;
+        }
+        double lat = nodes.getLat(node);
+        double lon = nodes.getLon(node);
+        return (lat < bounds[0] || lat > bounds[2] || lon < bounds[1] || lon > bounds[3]);
+    }
+
+    public static void main(String[] args) {
+        if (args.length != 2 && args.length != 6) {
+            System.out.println("Usage: OsmImporter input.osm|input.osm.pbf output.map [south west north east]");
+            return;
+        }
+
+        float[] boundArr = null;
+        if (args.length == 6) {
+            boundArr = new float[4];
+            for (int i = 0; i < 4; i++) {
+                boundArr[i] = Float.parseFloat(args[i + 2]);
+            }
+        }
+
+        try {
+            int lines = new OsmImporter(boundArr).importFile(args[0], args[1]);
+            System.out.println("Wrote " + lines + " lines to " + args[1]);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package mapmaker;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import javax.json.Json;
+import javax.json.stream.JsonParser;
+import javax.json.stream.JsonParsingException;
+
+/**
+ * Streams the nodes and ways of an Overpass API JSON response:
+ * {"elements": [{"type": "node", "id": .., "lat": .., "lon": ..},
+ *               {"type": "way", "id": .., "nodes": [..], "tags": {..}}, ..]}
+ * Each element is reported as soon as its closing brace is read, so only
+ * the current element is held in memory.
+ */
+public class OsmJsonReader {
+    private long[] refs = new long[256];
+    private int refCount;
+
+    public void read(InputStream in, OsmHandler handler) throws IOException {
+        try (JsonParser parser = Json.createParser(in)) {
+            if (!parser.hasNext() || parser.next() != JsonParser.Event.START_OBJECT) {
+                throw new IOException("Overpass response is not a JSON object");
+            }
+            String key = null;
+            JsonParser.Event event;
+            while ((event = parser.next()) != JsonParser.Event.END_OBJECT) {
+                if (event == JsonParser.Event.KEY_NAME) {
+                    key = parser.getString();
+                } else if (event == JsonParser.Event.START_ARRAY && "elements".equals(key)) {
+                    readElements(parser, handler);
+                } else if (event == JsonParser.Event.START_ARRAY
+                        || event == JsonParser.Event.START_OBJECT) {
+                    skip(parser);
+                }
+            }
+        } catch (JsonParsingException e) {
+            throw new IOException("Malformed Overpass response", e);
+        }
+    }
+
+    private void readElements(JsonParser parser, OsmHandler handler) {
+        JsonParser.Event event;
+        while ((event = parser.next()) != JsonParser.Event.END_ARRAY) {
+            if (event == JsonParser.Event.START_OBJECT) {
+                readElement(parser, handler);
+            } else if (event == JsonParser.Event.START_ARRAY) {
+                skip(parser);
+            }
+        }
+    }
+
+    // Read one element up to its closing brace and pass it to the handler
+    private void readElement(JsonParser parser, OsmHandler handler) {
+        String type = null;
+        long id = 0;
+        int lat = 0;
+        int lon = 0;
+        String name = "";
+        String highway = null;
+        String oneway = "no";
+        refCount = 0;
+
+        String key = null;
+        JsonParser.Event event;
+        while ((event = parser.next()) != JsonParser.Event.END_OBJECT) {
+            switch (event) {
+                case KEY_NAME:
+                    key = parser.getString();
+                    break;
+                case VALUE_STRING:
+                    if (key.equals("type")) {
+                        type = parser.getString();
+                    }
+                    break;
+                case VALUE_NUMBER:
+                    if (key.equals("id")) {
+                        id = parser.getLong();
+                    } else if (key.equals("lat")) {
+                        lat = fixed(parser.getString());
+                    } else if (key.equals("lon")) {
+                        lon = fixed(parser.getString());
+                    }
+                    break;
+                case START_ARRAY:
+                    if (key.equals("nodes")) {
+                        readRefs(parser);
+                    } else {
+                        skip(parser);
+                    }
+                    break;
+                case START_OBJECT:
+                    if (!key.equals("tags")) {
+                        skip(parser);
+                        break;
+                    }
+                    String tag = null;
+                    while ((event = parser.next()) != JsonParser.Event.END_OBJECT) {
+                        if (event == JsonParser.Event.KEY_NAME) {
+                            tag = parser.getString();
+                        } else if (event == JsonParser.Event.VALUE_STRING) {
+                            if (tag.equals("name")) {
+                                name = parser.getString();
+                            } else if (tag.equals("highway")) {
+                                highway = parser.getString();
+                            } else if (tag.equals("oneway")) {
+                                oneway = parser.getString();
+                            }
+                        } else if (event == JsonParser.Event.START_ARRAY
+                                || event == JsonParser.Event.START_OBJECT) {
+                            skip(parser);
+                        }
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        if ("node".equals(type)) {
+            handler.node(id, lat, lon);
+        } else if ("way".equals(type)) {
+            handler.way(refs, refCount, name, highway, oneway);
+        }
+    }
+
+    private void readRefs(JsonParser parser) {
+        JsonParser.Event event;
+        while ((event = parser.next()) != JsonParser.Event.END_ARRAY) {
+            if (event == JsonParser.Event.VALUE_NUMBER) {
+                if (refCount == refs.length) {
+                    refs = Arrays.copyOf(refs, refCount * 2);
+                }
+                refs[refCount++] = parser.getLong();
+            }
+        }
+    }
+
+    // Skip the rest of an array or object whose start was just read
+    private static void skip(JsonParser parser) {
+        int depth = 1;
+        while (depth > 0) {
+            JsonParser.Event event = parser.next();
+            if (event == JsonParser.Event.START_ARRAY || event == JsonParser.Event.START_OBJECT) {
+                depth++;
+            } else if (event == JsonParser.Event.END_ARRAY || event == JsonParser.Event.END_OBJECT) {
+                depth--;
+            }
+        }
+    }
+
+    private static int fixed(String degrees) {
+        return (int) Math.round(Double.parseDouble(degrees) * 1e7);
+    }
+}
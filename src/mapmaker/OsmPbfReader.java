@@ -0,0 +1,408 @@
+package mapmaker;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Streams the nodes and ways of an .osm.pbf file.
+ * The file is a sequence of blobs of at most 64MB each; one blob is
+ * decoded at a time into reused buffers.  Only uncompressed and zlib
+ * compressed blobs are supported, which is what common tools write.
+ */
+public class OsmPbfReader {
+    private static final int MAX_BLOB_SIZE = 64 * 1024 * 1024;
+
+    private final ProtobufReader pb = new ProtobufReader();
+    private byte[] blob = new byte[1 << 16];
+    private byte[] data = new byte[1 << 16];
+
+    // Per block state
+    private String[] strings = new String[256];
+    private int stringCount;
+    private int nameKey;
+    private int highwayKey;
+    private int onewayKey;
+    private long granularity;
+    private long latOffset;
+    private long lonOffset;
+    private int[] groupStarts = new int[16];
+    private int[] groupLengths = new int[16];
+    private int groupCount;
+
+    // Scratch space for decoding packed fields
+    private long[] ids = new long[8192];
+    private long[] lats = new long[8192];
+    private long[] lons = new long[8192];
+    private long[] refs = new long[256];
+    private int[] keys = new int[16];
+    private int[] vals = new int[16];
+    // Number of values in the array after the last readPacked call
+    private int packedCount;
+
+    public void read(String filename, OsmHandler handler) throws IOException {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(filename), 1 << 16)) {
+            read(in, handler);
+        }
+    }
+
+    public void read(InputStream input, OsmHandler handler) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            readBlobs(new DataInputStream(input), inflater, handler);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private void readBlobs(DataInputStream in, Inflater inflater, OsmHandler handler) throws IOException {
+        while (true) {
+            int headerLength;
+            try {
+                headerLength = in.readInt();
+            } catch (EOFException e) {
+                return;
+            }
+            if (headerLength < 0 || headerLength > MAX_BLOB_SIZE) {
+                throw new IOException("Invalid blob header length " + headerLength);
+            }
+
+            // BlobHeader: the type of the blob and the size of its data
+            blob = ensure(blob, headerLength);
+            in.readFully(blob, 0, headerLength);
+            pb.reset(blob, 0, headerLength);
+            String type = null;
+            int dataSize = -1;
+            while (pb.hasMore()) {
+                int tag = pb.readTag();
+                if (tag >>> 3 == 1) {
+                    type = pb.readString();
+                } else if (tag >>> 3 == 3) {
+                    dataSize = (int) pb.readVarint();
+                } else {
+                    pb.skip(tag);
+                }
+            }
+            if (dataSize < 0 || dataSize > MAX_BLOB_SIZE) {
+                throw new IOException("Invalid blob size " + dataSize);
+            }
+
+            blob = ensure(blob, dataSize);
+            in.readFully(blob, 0, dataSize);
+            if ("OSMData".equals(type)) {
+                int length = decodeBlob(dataSize, inflater);
+                readBlock(length, handler);
+            }
+        }
+    }
+
+    // Blob: either raw data or zlib compressed data with its raw size.
+    // Leaves the decoded bytes in data and returns their length.
+    private int decodeBlob(int size, Inflater inflater) throws IOException {
+        pb.reset(blob, 0, size);
+        int rawSize = -1;
+        int zlibStart = -1;
+        int zlibLength = 0;
+        while (pb.hasMore()) {
+            int tag = pb.readTag();
+            int field = tag >>> 3;
+            if (field == 1) {
+                int length = pb.readLength();
+                data = ensure(data, length);
+                System.arraycopy(blob, pb.position(), data, 0, length);
+                return length;
+            } else if (field == 2) {
+                rawSize = (int) pb.readVarint();
+            } else if (field == 3) {
+                zlibLength = pb.readLength();
+                zlibStart = pb.position();
+                pb.advance(zlibLength);
+            } else if (field >= 4 && field <= 7) {
+                throw new IOException("Unsupported blob compression (field " + field + ")");
+            } else {
+                pb.skip(tag);
+            }
+        }
+        if (zlibStart < 0 || rawSize < 0 || rawSize > MAX_BLOB_SIZE) {
+            throw new IOException("Blob has no data");
+        }
+        data = ensure(data, rawSize);
+        inflater.reset();
+        inflater.setInput(blob, zlibStart, zlibLength);
+        try {
+            int inflated = 0;
+            while (inflated < rawSize && !inflater.finished()) {
+                int n = inflater.inflate(data, inflated, rawSize - inflated);
+                if (n == 0 && inflater.needsInput()) {
+                    break;
+                }
+                inflated += n;
+            }
+            if (inflated != rawSize) {
+                throw new IOException("Truncated zlib blob");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt zlib blob", e);
+        }
+        return rawSize;
+    }
+
+    // PrimitiveBlock.  The granularity and offsets follow the groups in
+    // the encoding, so record where the groups are and decode them last.
+    private void readBlock(int length, OsmHandler handler) throws IOException {
+        stringCount = 0;
+        groupCount = 0;
+        granularity = 100;
+        latOffset = 0;
+        lonOffset = 0;
+
+        pb.reset(data, 0, length);
+        while (pb.hasMore()) {
+            int tag = pb.readTag();
+            switch (tag >>> 3) {
+                case 1:
+                    readStringTable();
+                    break;
+                case 2:
+                    int groupLength = pb.readLength();
+                    if (groupCount == groupStarts.length) {
+                        groupStarts = Arrays.copyOf(groupStarts, groupCount * 2);
+                        groupLengths = Arrays.copyOf(groupLengths, groupCount * 2);
+                    }
+                    groupStarts[groupCount] = pb.position();
+                    groupLengths[groupCount++] = groupLength;
+                    pb.advance(groupLength);
+                    break;
+                case 17:
+                    granularity = pb.readVarint();
+                    break;
+                case 19:
+                    latOffset = pb.readVarint();
+                    break;
+                case 20:
+                    lonOffset = pb.readVarint();
+                    break;
+                default:
+                    pb.skip(tag);
+            }
+        }
+
+        for (int g = 0; g < groupCount; g++) {
+            pb.reset(data, groupStarts[g], groupLengths[g]);
+            while (pb.hasMore()) {
+                int tag = pb.readTag();
+                switch (tag >>> 3) {
+                    case 1:
+                        pb.push();
+                        readNode(handler);
+                        pb.pop();
+                        break;
+                    case 2:
+                        pb.push();
+                        readDenseNodes(handler);
+                        pb.pop();
+                        break;
+                    case 3:
+                        pb.push();
+                        readWay(handler);
+                        pb.pop();
+                        break;
+                    default:
+                        pb.skip(tag);
+                }
+            }
+        }
+    }
+
+    private void readStringTable() throws IOException {
+        nameKey = -1;
+        highwayKey = -1;
+        onewayKey = -1;
+        pb.push();
+        while (pb.hasMore()) {
+            int tag = pb.readTag();
+            if (tag >>> 3 != 1) {
+                pb.skip(tag);
+                continue;
+            }
+            if (stringCount == strings.length) {
+                strings = Arrays.copyOf(strings, stringCount * 2);
+            }
+            String s = pb.readString();
+            if (s.equals("name")) {
+                nameKey = stringCount;
+            } else if (s.equals("highway")) {
+                highwayKey = stringCount;
+            } else if (s.equals("oneway")) {
+                onewayKey = stringCount;
+            }
+            strings[stringCount++] = s;
+        }
+        pb.pop();
+    }
+
+    private void readNode(OsmHandler handler) throws IOException {
+        long id = 0;
+        long lat = 0;
+        long lon = 0;
+        while (pb.hasMore()) {
+            int tag = pb.readTag();
+            switch (tag >>> 3) {
+                case 1:
+                    id = pb.readSInt64();
+                    break;
+                case 8:
+                    lat = pb.readSInt64();
+                    break;
+                case 9:
+                    lon = pb.readSInt64();
+                    break;
+                default:
+                    pb.skip(tag);
+            }
+        }
+        handler.node(id, fixed(latOffset, lat), fixed(lonOffset, lon));
+    }
+
+    private void readDenseNodes(OsmHandler handler) throws IOException {
+        int idCount = 0;
+        int latCount = 0;
+        int lonCount = 0;
+        while (pb.hasMore()) {
+            int tag = pb.readTag();
+            switch (tag >>> 3) {
+                case 1:
+                    ids = readPackedSInt64(tag, ids, idCount);
+                    idCount = packedCount;
+                    break;
+                case 8:
+                    lats = readPackedSInt64(tag, lats, latCount);
+                    latCount = packedCount;
+                    break;
+                case 9:
+                    lons = readPackedSInt64(tag, lons, lonCount);
+                    lonCount = packedCount;
+                    break;
+                default:
+                    pb.skip(tag);
+            }
+        }
+        if (idCount != latCount || idCount != lonCount) {
+            throw new IOException("Dense nodes have mismatched arrays");
+        }
+        long id = 0;
+        long lat = 0;
+        long lon = 0;
+        for (int i = 0; i < idCount; i++) {
+            id += ids[i];
+            lat += lats[i];
+            lon += lons[i];
+            handler.node(id, fixed(latOffset, lat), fixed(lonOffset, lon));
+        }
+    }
+
+    private void readWay(OsmHandler handler) throws IOException {
+        int keyCount = 0;
+        int valCount = 0;
+        int refCount = 0;
+        while (pb.hasMore()) {
+            int tag = pb.readTag();
+            switch (tag >>> 3) {
+                case 2:
+                    keys = readPackedUInt32(tag, keys, keyCount);
+                    keyCount = packedCount;
+                    break;
+                case 3:
+                    vals = readPackedUInt32(tag, vals, valCount);
+                    valCount = packedCount;
+                    break;
+                case 8:
+                    refs = readPackedSInt64(tag, refs, refCount);
+                    refCount = packedCount;
+                    break;
+                default:
+                    pb.skip(tag);
+            }
+        }
+
+        String name = "";
+        String highway = null;
+        String oneway = "no";
+        for (int i = 0; i < keyCount && i < valCount; i++) {
+            if (keys[i] == highwayKey) {
+                highway = strings[vals[i]];
+            } else if (keys[i] == nameKey) {
+                name = strings[vals[i]];
+            } else if (keys[i] == onewayKey) {
+                oneway = strings[vals[i]];
+            }
+        }
+        if (highway == null) {
+            return;
+        }
+
+        long ref = 0;
+        for (int i = 0; i < refCount; i++) {
+            ref += refs[i];
+            refs[i] = ref;
+        }
+        handler.way(refs, refCount, name, highway, oneway);
+    }
+
+    private long[] readPackedSInt64(int tag, long[] into, int count) throws IOException {
+        if ((tag & 7) != ProtobufReader.LENGTH_DELIMITED) {
+            into = ensure(into, count + 1);
+            into[count++] = pb.readSInt64();
+        } else {
+            pb.push();
+            while (pb.hasMore()) {
+                if (count == into.length) {
+                    into = Arrays.copyOf(into, count * 2);
+                }
+                into[count++] = pb.readSInt64();
+            }
+            pb.pop();
+        }
+        packedCount = count;
+        return into;
+    }
+
+    private int[] readPackedUInt32(int tag, int[] into, int count) throws IOException {
+        if ((tag & 7) != ProtobufReader.LENGTH_DELIMITED) {
+            if (count == into.length) {
+                into = Arrays.copyOf(into, count * 2);
+            }
+            into[count++] = (int) pb.readVarint();
+        } else {
+            pb.push();
+            while (pb.hasMore()) {
+                if (count == into.length) {
+                    into = Arrays.copyOf(into, count * 2);
+                }
+                into[count++] = (int) pb.readVarint();
+            }
+            pb.pop();
+        }
+        packedCount = count;
+        return into;
+    }
+
+    // Coordinates are offset + granularity * value, in nanodegrees
+    private int fixed(long offset, long value) {
+        return (int) Math.round((offset + granularity * value) / 100.0);
+    }
+
+    private static byte[] ensure(byte[] buf, int size) {
+        return buf.length >= size ? buf : new byte[Math.max(size, buf.length * 2)];
+    }
+
+    private static long[] ensure(long[] buf, int size) {
+        return buf.length >= size ? buf : Arrays.copyOf(buf, Math.max(size, buf.length * 2));
+    }
+}
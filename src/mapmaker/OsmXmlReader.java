@@ -0,0 +1,84 @@
+package mapmaker;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Streams the nodes and ways of an .osm XML file with StAX.
+ * Only the current way is held in memory.
+ */
+public class OsmXmlReader {
+    private long[] refs = new long[256];
+    private int refCount;
+    private String name;
+    private String highway;
+    private String oneway;
+
+    public void read(String filename, OsmHandler handler) throws IOException {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(filename), 1 << 16)) {
+            read(in, handler);
+        }
+    }
+
+    public void read(InputStream in, OsmHandler handler) throws IOException {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, false);
+        try {
+            XMLStreamReader xml = factory.createXMLStreamReader(in);
+            boolean inWay = false;
+            while (xml.hasNext()) {
+                int event = xml.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    String element = xml.getLocalName();
+                    if (element.equals("node")) {
+                        handler.node(Long.parseLong(xml.getAttributeValue(null, "id")),
+                                fixed(xml.getAttributeValue(null, "lat")),
+                                fixed(xml.getAttributeValue(null, "lon")));
+                    } else if (element.equals("way")) {
+                        inWay = true;
+                        refCount = 0;
+                        name = "";
+                        highway = null;
+                        oneway = "no";
+                    } else if (inWay && element.equals("nd")) {
+                        if (refCount == refs.length) {
+                            refs = Arrays.copyOf(refs, refCount * 2);
+                        }
+                        refs[refCount++] = Long.parseLong(xml.getAttributeValue(null, "ref"));
+                    } else if (inWay && element.equals("tag")) {
+                        tag(xml.getAttributeValue(null, "k"), xml.getAttributeValue(null, "v"));
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT && inWay
+                        && xml.getLocalName().equals("way")) {
+                    inWay = false;
+                    handler.way(refs, refCount, name, highway, oneway);
+                }
+            }
+            xml.close();
+        } catch (XMLStreamException e) {
+            throw new IOException("Malformed OSM XML", e);
+        }
+    }
+
+    private void tag(String key, String value) {
+        if (key.equals("name")) {
+            name = value;
+        } else if (key.equals("highway")) {
+            highway = value;
+        } else if (key.equals("oneway")) {
+            oneway = value;
+        }
+    }
+
+    private static int fixed(String degrees) {
+        return (int) Math.round(Double.parseDouble(degrees) * 1e7);
+    }
+}
@@ -0,0 +1,136 @@
+package mapmaker;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Minimal reader for the protocol buffer wire format, enough to decode
+ * the messages of an .osm.pbf file without generated classes.
+ * Reads from a window of a byte array; embedded messages are read by
+ * narrowing the window with push and restoring it with pop.
+ */
+class ProtobufReader {
+    static final int VARINT = 0;
+    static final int FIXED64 = 1;
+    static final int LENGTH_DELIMITED = 2;
+    static final int FIXED32 = 5;
+
+    private byte[] buf;
+    private int pos;
+    private int limit;
+    private int[] limits = new int[16];
+    private int depth;
+
+    void reset(byte[] buf, int offset, int length) {
+        this.buf = buf;
+        this.pos = offset;
+        this.limit = offset + length;
+        this.depth = 0;
+    }
+
+    boolean hasMore() {
+        return pos < limit;
+    }
+
+    /**
+     * @return the next field tag; the field number is tag >>> 3
+     * and the wire type is tag & 7
+     */
+    int readTag() throws IOException {
+        return (int) readVarint();
+    }
+
+    long readVarint() throws IOException {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (pos >= limit) {
+                throw new IOException("Truncated varint");
+            }
+            byte b = buf[pos++];
+            result |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return result;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    long readSInt64() throws IOException {
+        long n = readVarint();
+        return (n >>> 1) ^ -(n & 1);
+    }
+
+    int readLength() throws IOException {
+        int length = (int) readVarint();
+        if (length < 0 || pos + length > limit) {
+            throw new IOException("Truncated field");
+        }
+        return length;
+    }
+
+    String readString() throws IOException {
+        int length = readLength();
+        String s = new String(buf, pos, length, StandardCharsets.UTF_8);
+        pos += length;
+        return s;
+    }
+
+    /**
+     * Narrow the window to the length delimited field at the current position.
+     */
+    void push() throws IOException {
+        int length = readLength();
+        if (depth == limits.length) {
+            limits = Arrays.copyOf(limits, depth * 2);
+        }
+        limits[depth++] = limit;
+        limit = pos + length;
+    }
+
+    /**
+     * Restore the window narrowed by the matching push, skipping whatever
+     * was not read.
+     */
+    void pop() {
+        pos = limit;
+        limit = limits[--depth];
+    }
+
+    int position() {
+        return pos;
+    }
+
+    /**
+     * Move past bytes whose length has already been read.
+     */
+    void advance(int length) {
+        pos += length;
+    }
+
+    /**
+     * Skip the length delimited field at the current position.
+     */
+    void skipBytes() throws IOException {
+        pos += readLength();
+    }
+
+    void skip(int tag) throws IOException {
+        switch (tag & 7) {
+            case VARINT:
+                readVarint();
+                break;
+            case FIXED64:
+                pos += 8;
+                break;
+            case LENGTH_DELIMITED:
+                skipBytes();
+                break;
+            case FIXED32:
+                pos += 4;
+                break;
+            default:
+                throw new IOException("Unsupported wire type " + (tag & 7));
+        }
+    }
+}
@@ -3,6 +3,7 @@ package roadgraph;
 import geography.GeographicPoint;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 
@@ -27,6 +28,31 @@ public class CacheResult
         return new ArrayList<GeographicPoint>();
     }
 
+    /**
+     * Drop every cached route that passes through one of the points
+     *
+     * @param points
+     */
+    public void invalidate(Collection<GeographicPoint> points)
+    {
+        if (points.isEmpty()) {
+            return;
+        }
+        this.cachedResult.values().removeIf(route -> {
+            for (Object point : route) {
+                if (points.contains(point)) {
+                    return true;
+                }
+            }
+            return false;
+        });
+    }
+
+    public void clear()
+    {
+        this.cachedResult.clear();
+    }
+
     protected String generateKey(String $type, GeographicPoint start, GeographicPoint end)
     {
         return $type.concat(start.toString()).concat(end.toString());
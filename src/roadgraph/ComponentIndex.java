@@ -0,0 +1,379 @@
+package roadgraph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+import geography.GeographicPoint;
+import util.GraphLoader;
+
+/**
+ * Class ComponentIndex
+ * Purpose and description of class:
+ * Labels every intersection of a MapGraph with its strongly connected
+ * component (the set of intersections which can all reach each other) and
+ * its weakly connected component (ignoring the direction of the roads), so a
+ * search can tell at once that its goal is out of reach instead of exploring
+ * everything reachable from the start first.
+ * <p>
+ * The strong components are found with an iterative form of Tarjan's
+ * algorithm, which finishes a component only after every component it leads
+ * to. Numbering them in the order they finish means an edge between two
+ * components always goes from a higher number to a lower one, so a goal
+ * whose component number is higher than the start's, or which is in another
+ * weak component, cannot be reached. The converse does not hold: mayReach
+ * only rules routes out.
+ * <p>
+ * The components which are not the largest are usually data problems, such
+ * as one way streets pointing the wrong way or roads cut at the edge of the
+ * extract; getIslands lists them. The index is a snapshot: MapGraph rebuilds
+ * it after the graph changes.
+ */
+public class ComponentIndex {
+    private HashMap<GeographicPoint, Integer> ids = new HashMap<>();
+    // Temporary points labelled like an intersection, see addAlias
+    private HashSet<GeographicPoint> aliases = new HashSet<>();
+    private GeographicPoint[] points;
+    private int[] strong;
+    private int[] weak;
+    private int[] strongSize;
+    // Whether any edge enters or leaves each strong component
+    private boolean[] entered;
+    private boolean[] left;
+    private int largest;
+
+    /**
+     * Label the intersections of a graph
+     *
+     * @param graph The graph
+     */
+    public ComponentIndex(MapGraph graph) {
+        points = graph.getVertices().toArray(new GeographicPoint[0]);
+        int n = points.length;
+        for (int i = 0; i < n; i++) {
+            ids.put(points[i], i);
+        }
+
+        // The edges in CSR form
+        int[] edgeStart = new int[n + 1];
+        for (int i = 0; i < n; i++) {
+            edgeStart[i + 1] = edgeStart[i] + graph.getEdges(points[i]).size();
+        }
+        int[] edgeTarget = new int[edgeStart[n]];
+        for (int i = 0, e = 0; i < n; i++) {
+            for (MapNodeEdge edge : graph.getEdges(points[i])) {
+                edgeTarget[e++] = ids.get(edge.getEnd());
+            }
+        }
+
+        strong = tarjan(n, edgeStart, edgeTarget);
+        weak = unionFind(n, edgeStart, edgeTarget);
+
+        int components = 0;
+        for (int c : strong) {
+            components = Math.max(components, c + 1);
+        }
+        strongSize = new int[components];
+        entered = new boolean[components];
+        left = new boolean[components];
+        for (int i = 0; i < n; i++) {
+            strongSize[strong[i]]++;
+            for (int e = edgeStart[i]; e < edgeStart[i + 1]; e++) {
+                int j = edgeTarget[e];
+                if (strong[i] != strong[j]) {
+                    left[strong[i]] = true;
+                    entered[strong[j]] = true;
+                }
+            }
+        }
+        for (int c = 1; c < components; c++) {
+            if (strongSize[c] > strongSize[largest]) {
+                largest = c;
+            }
+        }
+    }
+
+    // Tarjan's algorithm with an explicit stack of (vertex, next edge), so
+    // long roads do not overflow the call stack. Returns the component of
+    // each vertex, numbered in the order the components finish.
+    private static int[] tarjan(int n, int[] edgeStart, int[] edgeTarget) {
+        int[] index = new int[n];
+        int[] low = new int[n];
+        int[] component = new int[n];
+        boolean[] onStack = new boolean[n];
+        Arrays.fill(index, -1);
+
+        int[] stack = new int[n];
+        int stackSize = 0;
+        int[] callVertex = new int[n];
+        int[] callEdge = new int[n];
+        int nextIndex = 0;
+        int nextComponent = 0;
+
+        for (int root = 0; root < n; root++) {
+            if (index[root] >= 0) {
+                continue;
+            }
+            int depth = 0;
+            callVertex[0] = root;
+            callEdge[0] = edgeStart[root];
+            index[root] = low[root] = nextIndex++;
+            stack[stackSize++] = root;
+            onStack[root] = true;
+
+            while (depth >= 0) {
+                int v = callVertex[depth];
+                if (callEdge[depth] < edgeStart[v + 1]) {
+                    int w = edgeTarget[callEdge[depth]++];
+                    if (index[w] < 0) {
+                        // Descend into w
+                        index[w] = low[w] = nextIndex++;
+                        stack[stackSize++] = w;
+                        onStack[w] = true;
+                        depth++;
+                        callVertex[depth] = w;
+                        callEdge[depth] = edgeStart[w];
+                    } else if (onStack[w]) {
+                        low[v] = Math.min(low[v], index[w]);
+                    }
+                    continue;
+                }
+
+                // All edges of v are done
+                if (low[v] == index[v]) {
+                    int w;
+                    do {
+                        w = stack[--stackSize];
+                        onStack[w] = false;
+                        component[w] = nextComponent;
+                    } while (w != v);
+                    nextComponent++;
+                }
+                depth--;
+                if (depth >= 0) {
+                    int parent = callVertex[depth];
+                    low[parent] = Math.min(low[parent], low[v]);
+                }
+            }
+        }
+        return component;
+    }
+
+    // The weak component of each vertex, numbered by its root in a
+    // union-find over the edges
+    private static int[] unionFind(int n, int[] edgeStart, int[] edgeTarget) {
+        int[] parent = new int[n];
+        for (int i = 0; i < n; i++) {
+            parent[i] = i;
+        }
+        for (int i = 0; i < n; i++) {
+            for (int e = edgeStart[i]; e < edgeStart[i + 1]; e++) {
+                int a = find(parent, i);
+                int b = find(parent, edgeTarget[e]);
+                if (a != b) {
+                    parent[a] = b;
+                }
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            parent[i] = find(parent, i);
+        }
+        return parent;
+    }
+
+    private static int find(int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    /**
+     * Tell whether a route from one intersection to another may exist
+     *
+     * @param from The start of the route
+     * @param to   The end of the route
+     * @return false if there is certainly no route; true if there may be
+     * one, or if either point is not in the index
+     */
+    public boolean mayReach(GeographicPoint from, GeographicPoint to) {
+        Integer a = ids.get(from);
+        Integer b = ids.get(to);
+        if (a == null || b == null) {
+            return true;
+        }
+        return weak[a] == weak[b] && strong[b] <= strong[a];
+    }
+
+    /**
+     * Label a temporary point with the components of an intersection it is
+     * strongly connected to, such as a snapped point splitting a two-way
+     * road, so the index stays valid while the point is in the graph
+     *
+     * @param point The temporary point
+     * @param like  An intersection in the same strongly connected component
+     */
+    void addAlias(GeographicPoint point, GeographicPoint like) {
+        Integer id = ids.get(like);
+        if (id != null && !ids.containsKey(point)) {
+            ids.put(point, id);
+            aliases.add(point);
+        }
+    }
+
+    /**
+     * Forget a point labelled by addAlias
+     *
+     * @param point The temporary point
+     */
+    void removeAlias(GeographicPoint point) {
+        if (aliases.remove(point)) {
+            ids.remove(point);
+        }
+    }
+
+    /**
+     * Get the strongly connected component of an intersection
+     *
+     * @param point The intersection
+     * @return The component number, or -1 if the point is not in the index
+     */
+    public int getComponent(GeographicPoint point) {
+        Integer id = ids.get(point);
+        return id == null ? -1 : strong[id];
+    }
+
+    public int getNumComponents() {
+        return strongSize.length;
+    }
+
+    public int getComponentSize(int component) {
+        return strongSize[component];
+    }
+
+    /**
+     * Get the largest strongly connected component, the one most routes
+     * are expected to stay in
+     *
+     * @return The component number, or 0 for an empty graph
+     */
+    public int getLargestComponent() {
+        return largest;
+    }
+
+    /**
+     * List the strongly connected components of at most a given size,
+     * largest first
+     *
+     * @param maxSize The largest number of intersections in an island
+     * @return The islands
+     */
+    public List<Island> getIslands(int maxSize) {
+        List<List<GeographicPoint>> members = new ArrayList<>();
+        for (int c = 0; c < strongSize.length; c++) {
+            members.add(strongSize[c] <= maxSize && c != largest ? new ArrayList<>() : null);
+        }
+        for (int i = 0; i < points.length; i++) {
+            List<GeographicPoint> list = members.get(strong[i]);
+            if (list != null) {
+                list.add(points[i]);
+            }
+        }
+        List<Island> islands = new ArrayList<>();
+        for (int c = 0; c < strongSize.length; c++) {
+            if (members.get(c) != null) {
+                islands.add(new Island(c, members.get(c), entered[c], left[c]));
+            }
+        }
+        islands.sort((a, b) -> Integer.compare(b.getPoints().size(), a.getPoints().size()));
+        return islands;
+    }
+
+    /**
+     * Describe the components of the graph and its small islands
+     *
+     * @param maxSize The largest number of intersections in an island
+     * @return The report, one line per island
+     */
+    public String report(int maxSize) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(points.length).append(" intersections in ").append(strongSize.length)
+                .append(" strongly connected components; the largest has ")
+                .append(strongSize.length == 0 ? 0 : strongSize[largest]).append('\n');
+        for (Island island : getIslands(maxSize)) {
+            sb.append(island).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Class Island
+     * Purpose and description of class:
+     * A strongly connected component outside the main one.
+     */
+    public static class Island {
+        private int component;
+        private List<GeographicPoint> points;
+        private boolean enterable;
+        private boolean leavable;
+
+        Island(int component, List<GeographicPoint> points, boolean enterable, boolean leavable) {
+            this.component = component;
+            this.points = Collections.unmodifiableList(points);
+            this.enterable = enterable;
+            this.leavable = leavable;
+        }
+
+        public int getComponent() {
+            return component;
+        }
+
+        public List<GeographicPoint> getPoints() {
+            return points;
+        }
+
+        /**
+         * @return true if some road leads into the island from elsewhere
+         */
+        public boolean isEnterable() {
+            return enterable;
+        }
+
+        /**
+         * @return true if some road leads out of the island
+         */
+        public boolean isLeavable() {
+            return leavable;
+        }
+
+        public String toString() {
+            String problem;
+            if (!enterable && !leavable) {
+                problem = "disconnected";
+            } else if (!enterable) {
+                problem = "cannot be entered";
+            } else if (!leavable) {
+                problem = "cannot be left";
+            } else {
+                problem = "can be passed through but not returned to";
+            }
+            return "component " + component + ": " + points.size() + " intersection(s) near "
+                    + points.get(0) + ", " + problem;
+        }
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.out.println("Usage: ComponentIndex <map file> [max island size]");
+            return;
+        }
+        MapGraph graph = new MapGraph();
+        GraphLoader.loadRoadMap(args[0], graph);
+        int maxSize = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        System.out.print(graph.getComponentIndex().report(maxSize));
+    }
+}
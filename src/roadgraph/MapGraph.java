@@ -23,6 +23,8 @@ public class MapGraph {
     private HashMap<GeographicPoint, MapNode> nodes;
     private HashSet<MapNode> visited;
     private CacheResult cached;
+    // Built on the first search after the graph changes
+    private ComponentIndex components;
 
     /**
      * Create a new empty MapGraph
@@ -81,6 +83,7 @@ public class MapGraph {
         }
 
         nodes.put(location, new MapNode(location));
+        this.components = null;
 
         return false;
     }
@@ -111,6 +114,145 @@ public class MapGraph {
 
         MapNode mapNode = this.nodes.get(from);
         mapNode.addEdge(new MapNodeEdge(from, to, roadName, roadType, length));
+        this.components = null;
+    }
+
+    /**
+     * Return the outgoing edges of the intersection at a Geographic Point
+     *
+     * @param location The location of the intersection
+     * @return The outgoing edges, or an empty list if the location is not a vertex
+     */
+    public List<MapNodeEdge> getEdges(GeographicPoint location) {
+        MapNode mapNode = this.nodes.get(location);
+        if (mapNode == null) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(mapNode.getEdges());
+    }
+
+    /**
+     * Remove all outgoing edges of the intersection at a Geographic Point
+     *
+     * @param from The location of the intersection
+     */
+    public void removeEdges(GeographicPoint from) {
+        MapNode mapNode = this.nodes.get(from);
+        if (mapNode != null) {
+            mapNode.clearEdges();
+            this.components = null;
+        }
+    }
+
+    /**
+     * Remove the edges from one intersection to another
+     *
+     * @param from The location of the intersection the edges start at
+     * @param to   The location of the intersection the edges end at
+     */
+    public void removeEdges(GeographicPoint from, GeographicPoint to) {
+        MapNode mapNode = this.nodes.get(from);
+        if (mapNode != null) {
+            mapNode.getEdges().removeIf(edge -> edge.getEnd().equals(to));
+            this.components = null;
+        }
+    }
+
+    /**
+     * Remove the intersection at a Geographic Point together with its
+     * outgoing edges. Edges leading into it are left untouched; remove
+     * them first with removeEdges on their start points.
+     *
+     * @param location The location of the intersection
+     * @return true if a node was removed
+     */
+    public boolean removeVertex(GeographicPoint location) {
+        this.components = null;
+        return this.nodes.remove(location) != null;
+    }
+
+    /**
+     * Return the strongly connected components of the graph, labelling
+     * them first if the graph changed since they were last labelled
+     *
+     * @return The component index
+     */
+    public ComponentIndex getComponentIndex() {
+        if (this.components == null) {
+            this.components = new ComponentIndex(this);
+        }
+        return this.components;
+    }
+
+    /**
+     * Return the component index if it has been built since the graph last
+     * changed, without building it
+     *
+     * @return The index, or null
+     */
+    ComponentIndex getBuiltComponentIndex() {
+        return this.components;
+    }
+
+    /**
+     * Put back a component index after a change which cannot affect which
+     * intersections reach each other, such as splitting a road with a
+     * snapped point
+     *
+     * @param components The index, or null
+     */
+    void restoreComponentIndex(ComponentIndex components) {
+        this.components = components;
+    }
+
+    /**
+     * Tell whether a search from start could reach goal, so searches which
+     * cannot succeed return at once. Subclasses which do not hold the whole
+     * graph in memory override this to always answer true.
+     *
+     * @param start The starting location
+     * @param goal  The goal location
+     * @return false if there is certainly no path from start to goal
+     */
+    protected boolean mayReach(GeographicPoint start, GeographicPoint goal) {
+        return getComponentIndex().mayReach(start, goal);
+    }
+
+    /**
+     * Look up the node of an intersection for a search. Subclasses may
+     * override this to bring nodes into memory on demand.
+     *
+     * @param location The location of the intersection
+     * @return The node, or null if there is no intersection at the location
+     */
+    protected MapNode getNode(GeographicPoint location) {
+        return this.nodes.get(location);
+    }
+
+    /**
+     * Look up the node of an intersection which is already in memory
+     *
+     * @param location The location of the intersection
+     * @return The node, or null if it is not loaded
+     */
+    protected MapNode getLoadedNode(GeographicPoint location) {
+        return this.nodes.get(location);
+    }
+
+    /**
+     * Forget cached routes which pass through any of the given intersections
+     *
+     * @param points The intersections whose edges changed
+     */
+    public void invalidateRoutesThrough(Collection<GeographicPoint> points) {
+        this.cached.invalidate(points);
+    }
+
+    /**
+     * Forget all cached routes
+     */
+    public void clearRouteCache() {
+        this.cached.clear();
     }
 
     /**
@@ -149,6 +291,10 @@ public class MapGraph {
             return list;
         }
 
+        if (!mayReach(start, goal)) {
+            return null;
+        }
+
         LinkedList<GeographicPoint> queue = new LinkedList<>();
         HashSet<GeographicPoint> visited = new HashSet<>();
         HashMap<GeographicPoint, GeographicPoint> path = new HashMap<>();
@@ -165,7 +311,7 @@ public class MapGraph {
 
             visited.add(queueElement);
 
-            MapNode mapNode = this.nodes.get(queueElement);
+            MapNode mapNode = getNode(queueElement);
             List<MapNodeEdge> edges = mapNode.getEdges();
 
             for (MapNodeEdge edge : edges) {
@@ -250,9 +396,13 @@ public class MapGraph {
         this.visited = new HashSet<>();
         HashMap<GeographicPoint, GeographicPoint> path = new HashMap<>();
 
+        if (!mayReach(start, goal)) {
+            return null;
+        }
+
         setBaseInfiniteValue();
-        this.nodes.get(start).setDistance(0);
-        queue.add(this.nodes.get(start));
+        getNode(start).setDistance(0);
+        queue.add(getNode(start));
 
         while (queue.size() > 0) {
             MapNode queueElement = queue.remove();
@@ -269,7 +419,7 @@ public class MapGraph {
 
                 List<MapNodeEdge> edges = queueElement.getEdges();
                 for (MapNodeEdge edge : edges) {
-                    MapNode temp = this.nodes.get(edge.getEnd());
+                    MapNode temp = getNode(edge.getEnd());
                     if (!visited.contains(temp)) {
                         if (temp.getDistance() > (edge.getTime() + queueElement.getDistance())) {
                             temp.setDistance(edge.getTime() + queueElement.getDistance());
@@ -287,6 +437,7 @@ public class MapGraph {
     private void setBaseInfiniteValue() {
         for (GeographicPoint n : this.nodes.keySet()) {
             this.nodes.get(n).setDistance(Integer.MAX_VALUE);
+            this.nodes.get(n).setPred(0);
         }
     }
 
@@ -330,11 +481,16 @@ public class MapGraph {
         PriorityQueue<MapNode> queue = new PriorityQueue<MapNode>();
         this.visited = new HashSet<>();
         HashMap<GeographicPoint, GeographicPoint> path = new HashMap<>();
+
+        if (!mayReach(start, goal)) {
+            return null;
+        }
         double distance = 0;
         double pred = 0;
         setBaseInfiniteValue();
-        this.nodes.get(start).setDistance(0);
-        queue.add(this.nodes.get(start));
+        getNode(start).setDistance(0);
+        queue.add(getNode(start));
+        MapNode goalNode = getNode(goal);
 
         while (queue.size() > 0) {
             MapNode queueElement = queue.remove();
@@ -352,12 +508,12 @@ public class MapGraph {
                 List<MapNodeEdge> edges = queueElement.getEdges();
                 System.out.print(" intersect street: ");
                 for (MapNodeEdge edge : edges) {
-                    MapNode temp = this.nodes.get(edge.getEnd());
+                    MapNode temp = getNode(edge.getEnd());
                     System.out.print(edge.getStreetName() + ", ");
                     if (!this.visited.contains(temp)) {
                         distance = edge.getTime() + queueElement.getDistance();
                         if (temp.getDistance() > distance) {
-                            pred = predictLength(temp, this.nodes.get(goal));
+                            pred = predictLength(temp, goalNode);
                             temp.setDistance(distance);
                             temp.setPred(pred);
                             queue.add(temp);
@@ -373,7 +529,7 @@ public class MapGraph {
     }
 
     private double predictLength(MapNode start, MapNode goal) {
-        return Math.abs(goal.getPoint().distance(start.getPoint()));
+        return start.lowerBoundDistance(goal);
     }
 
     public List<GeographicPoint> tsp(
@@ -0,0 +1,393 @@
+package roadgraph;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import geography.GeographicPoint;
+
+/**
+ * Class MapMatcher
+ * Purpose and description of class:
+ * Matches GPS traces to the roads of a MapGraph with a hidden Markov model,
+ * as described by Newson and Krumm. The candidates of each GPS point are the
+ * nearest points on the roads around it. A candidate is more likely the
+ * closer it is to the GPS point (a Gaussian on the distance), and a move
+ * between candidates of consecutive points is more likely the closer its
+ * driving distance is to the straight line distance between the points (an
+ * exponential on the difference). Driving distances come from a Dijkstra
+ * search bounded to a few times the straight line distance.
+ * <p>
+ * The most likely sequence of candidates is decoded with the Viterbi
+ * algorithm in a sliding window. A point is reported as soon as all the
+ * paths still alive agree on it, or when the window is full, so a trace of
+ * any length is matched in constant memory.
+ */
+public class MapMatcher {
+    private MapGraph graph;
+    private SpatialIndex index;
+
+    private double sigma = 0.005;
+    private double beta = 0.005;
+    private double searchRadius = 0.05;
+    private int candidates = 4;
+    private double maxDetour = 3;
+    private int window = 64;
+
+    /**
+     * Create a matcher
+     *
+     * @param graph The graph to match to
+     * @param index A spatial index of the graph
+     */
+    public MapMatcher(MapGraph graph, SpatialIndex index) {
+        this.graph = graph;
+        this.index = index;
+    }
+
+    /**
+     * Set the standard deviation of the GPS error
+     *
+     * @param sigma The standard deviation, in km
+     */
+    public void setSigma(double sigma) {
+        this.sigma = sigma;
+    }
+
+    /**
+     * Set how quickly moves become unlikely as they differ from a straight line
+     *
+     * @param beta The mean difference between driving and straight line distance, in km
+     */
+    public void setBeta(double beta) {
+        this.beta = beta;
+    }
+
+    /**
+     * Set how far from a GPS point to look for roads
+     *
+     * @param searchRadius The radius, in km
+     */
+    public void setSearchRadius(double searchRadius) {
+        this.searchRadius = searchRadius;
+    }
+
+    /**
+     * Set the largest number of candidate roads for each GPS point
+     *
+     * @param candidates The number of candidates
+     */
+    public void setCandidates(int candidates) {
+        this.candidates = candidates;
+    }
+
+    /**
+     * Set how much longer than the straight line a move between two GPS
+     * points may be before it is considered impossible
+     *
+     * @param maxDetour The factor, at least 1
+     */
+    public void setMaxDetour(double maxDetour) {
+        this.maxDetour = maxDetour;
+    }
+
+    /**
+     * Set the largest number of GPS points held before the oldest is
+     * reported even though the paths alive do not agree on it yet
+     *
+     * @param window The number of points
+     */
+    public void setWindow(int window) {
+        this.window = Math.max(2, window);
+    }
+
+    /**
+     * Match a whole trace
+     *
+     * @param trace The GPS points, in order
+     * @return The matched points, in order. GPS points with no road within
+     * the search radius are left out.
+     */
+    public List<SpatialIndex.Snap> match(Iterable<GeographicPoint> trace) {
+        List<SpatialIndex.Snap> matched = new ArrayList<>();
+        Session session = start(matched::add);
+        for (GeographicPoint point : trace) {
+            session.add(point);
+        }
+        session.finish();
+        return matched;
+    }
+
+    /**
+     * Start matching a trace whose points arrive one at a time
+     *
+     * @param output Receives each matched point, in order, once it is decided
+     * @return The session to add the points to
+     */
+    public Session start(Consumer<SpatialIndex.Snap> output) {
+        return new Session(output);
+    }
+
+    // One GPS point in the window: its candidates, the log probability of
+    // the best path ending at each, and the candidate of the previous point
+    // on that path.
+    private static class Step {
+        final GeographicPoint point;
+        final List<SpatialIndex.Snap> candidates;
+        final double[] score;
+        final int[] back;
+
+        Step(GeographicPoint point, List<SpatialIndex.Snap> candidates) {
+            this.point = point;
+            this.candidates = candidates;
+            this.score = new double[candidates.size()];
+            this.back = new int[candidates.size()];
+        }
+    }
+
+    /**
+     * Class Session
+     * Purpose and description of class:
+     * The matching state of one trace. Not safe for use by several threads.
+     */
+    public class Session {
+        private Consumer<SpatialIndex.Snap> output;
+        private ArrayDeque<Step> steps = new ArrayDeque<>();
+
+        Session(Consumer<SpatialIndex.Snap> output) {
+            this.output = output;
+        }
+
+        /**
+         * Add the next GPS point of the trace
+         *
+         * @param point The GPS point
+         */
+        public void add(GeographicPoint point) {
+            List<SpatialIndex.Snap> found = index.snapCandidates(point, candidates, searchRadius);
+            if (found.isEmpty()) {
+                return;
+            }
+            Step step = new Step(point, found);
+            for (int j = 0; j < found.size(); j++) {
+                step.score[j] = emission(found.get(j));
+                step.back[j] = -1;
+            }
+
+            Step prev = steps.peekLast();
+            if (prev != null && !transition(prev, step)) {
+                // No road connects the two points: the trace is broken here,
+                // so decide everything before the break.
+                flush(bestCandidate(prev), steps.size());
+                steps.clear();
+            }
+            steps.addLast(step);
+
+            emitConverged();
+            if (steps.size() >= window) {
+                Step last = steps.peekLast();
+                int kept = last.back[bestCandidate(last)];
+                flush(kept, steps.size() - 1);
+                // Only the paths through the reported candidate are still valid
+                for (int j = 0; j < last.score.length; j++) {
+                    if (last.back[j] != kept) {
+                        last.score[j] = Double.NEGATIVE_INFINITY;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Report the rest of the trace
+         */
+        public void finish() {
+            if (!steps.isEmpty()) {
+                flush(bestCandidate(steps.peekLast()), steps.size());
+                steps.clear();
+            }
+        }
+
+        // Fill in the scores of step from those of prev. Returns false if
+        // no candidate of step can be reached from a candidate of prev.
+        private boolean transition(Step prev, Step step) {
+            double straight = prev.point.distance(step.point);
+            double bound = straight * maxDetour + 2 * searchRadius;
+
+            Set<GeographicPoint> targets = new HashSet<>();
+            for (SpatialIndex.Snap to : step.candidates) {
+                targets.add(to.getEdge().getStart());
+            }
+
+            double[] best = new double[step.candidates.size()];
+            Arrays.fill(best, Double.NEGATIVE_INFINITY);
+            for (int i = 0; i < prev.candidates.size(); i++) {
+                if (prev.score[i] == Double.NEGATIVE_INFINITY) {
+                    continue;
+                }
+                SpatialIndex.Snap from = prev.candidates.get(i);
+                MapNodeEdge fromEdge = from.getEdge();
+                double leave = (1 - from.getFraction()) * fromEdge.getLength();
+                HashMap<GeographicPoint, Double> routes =
+                        boundedDistances(fromEdge.getEnd(), targets, bound - leave);
+
+                for (int j = 0; j < step.candidates.size(); j++) {
+                    SpatialIndex.Snap to = step.candidates.get(j);
+                    MapNodeEdge toEdge = to.getEdge();
+                    double driven;
+                    if (toEdge == fromEdge) {
+                        // Along the same road; GPS noise may move a point
+                        // slightly backwards.
+                        driven = Math.abs(to.getFraction() - from.getFraction()) * fromEdge.getLength();
+                    } else {
+                        Double between = routes.get(toEdge.getStart());
+                        if (between == null) {
+                            continue;
+                        }
+                        driven = leave + between + to.getFraction() * toEdge.getLength();
+                    }
+                    if (driven > bound) {
+                        continue;
+                    }
+                    double score = prev.score[i] - Math.abs(driven - straight) / beta + step.score[j];
+                    if (score > best[j]) {
+                        best[j] = score;
+                        step.back[j] = i;
+                    }
+                }
+            }
+
+            boolean reachable = false;
+            for (int j = 0; j < best.length; j++) {
+                if (best[j] != Double.NEGATIVE_INFINITY) {
+                    reachable = true;
+                }
+            }
+            if (reachable) {
+                System.arraycopy(best, 0, step.score, 0, best.length);
+            }
+            return reachable;
+        }
+
+        // Report the points all the live paths agree on. Walking back from
+        // the newest point, the set of candidates the live paths pass
+        // through can only shrink; once it is a single candidate, that
+        // candidate and everything before it are decided.
+        private void emitConverged() {
+            Step last = steps.peekLast();
+            Set<Integer> alive = new HashSet<>();
+            for (int j = 0; j < last.score.length; j++) {
+                if (last.score[j] != Double.NEGATIVE_INFINITY) {
+                    alive.add(j);
+                }
+            }
+
+            Iterator<Step> it = steps.descendingIterator();
+            Step step = it.next();
+            int stepsBack = 0;
+            while (alive.size() > 1 && it.hasNext()) {
+                Set<Integer> previous = new HashSet<>();
+                for (int j : alive) {
+                    previous.add(step.back[j]);
+                }
+                alive = previous;
+                step = it.next();
+                stepsBack++;
+            }
+            if (alive.size() == 1 && stepsBack > 0) {
+                flush(alive.iterator().next(), steps.size() - stepsBack);
+            }
+        }
+
+        // Report the oldest count points of the window, along the path
+        // ending at the given candidate of the count-th point, and remove
+        // them.
+        private void flush(int candidate, int count) {
+            SpatialIndex.Snap[] decided = new SpatialIndex.Snap[count];
+            Iterator<Step> it = steps.iterator();
+            Step[] oldest = new Step[count];
+            for (int i = 0; i < count; i++) {
+                oldest[i] = it.next();
+            }
+            int c = candidate;
+            for (int i = count - 1; i >= 0; i--) {
+                decided[i] = oldest[i].candidates.get(c);
+                c = oldest[i].back[c];
+            }
+            for (int i = 0; i < count; i++) {
+                steps.removeFirst();
+                output.accept(decided[i]);
+            }
+        }
+    }
+
+    private double emission(SpatialIndex.Snap candidate) {
+        double d = candidate.getDistance() / sigma;
+        return -0.5 * d * d;
+    }
+
+    private static int bestCandidate(Step step) {
+        int best = 0;
+        for (int j = 1; j < step.score.length; j++) {
+            if (step.score[j] > step.score[best]) {
+                best = j;
+            }
+        }
+        return best;
+    }
+
+    // Driving distances in km from source to those targets within the
+    // bound, by a Dijkstra search which stops at the bound.
+    private HashMap<GeographicPoint, Double> boundedDistances(
+            GeographicPoint source,
+            Set<GeographicPoint> targets,
+            double bound
+    ) {
+        HashMap<GeographicPoint, Double> settled = new HashMap<>();
+        HashMap<GeographicPoint, Double> result = new HashMap<>();
+        if (bound < 0) {
+            return result;
+        }
+        PriorityQueue<QueueEntry> queue = new PriorityQueue<>();
+        queue.add(new QueueEntry(source, 0));
+        int remaining = targets.size();
+        while (!queue.isEmpty() && remaining > 0) {
+            QueueEntry entry = queue.remove();
+            if (settled.containsKey(entry.point)) {
+                continue;
+            }
+            settled.put(entry.point, entry.distance);
+            if (targets.contains(entry.point)) {
+                result.put(entry.point, entry.distance);
+                remaining--;
+            }
+            for (MapNodeEdge edge : graph.getEdges(entry.point)) {
+                double distance = entry.distance + edge.getLength();
+                if (distance <= bound && !settled.containsKey(edge.getEnd())) {
+                    queue.add(new QueueEntry(edge.getEnd(), distance));
+                }
+            }
+        }
+        return result;
+    }
+
+    private static class QueueEntry implements Comparable<QueueEntry> {
+        final GeographicPoint point;
+        final double distance;
+
+        QueueEntry(GeographicPoint point, double distance) {
+            this.point = point;
+            this.distance = distance;
+        }
+
+        public int compareTo(QueueEntry o) {
+            return Double.compare(distance, o.distance);
+        }
+    }
+}
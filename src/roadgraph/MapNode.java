@@ -1,5 +1,6 @@
 package roadgraph;
 
+import geography.CoordinateArray;
 import geography.GeographicPoint;
 import java.util.LinkedList;
 import java.util.List;
@@ -15,6 +16,10 @@ public class MapNode implements Comparable<MapNode>
     private LinkedList edge;
     private double distance;
     private double pred;
+    // The point as a unit vector, for the A* heuristic
+    private double x;
+    private double y;
+    private double z;
 
     /**
      * Constructor
@@ -22,8 +27,8 @@ public class MapNode implements Comparable<MapNode>
      * @param geographicPoint
      */
     MapNode(GeographicPoint geographicPoint) {
-        point = geographicPoint;
         edge = new LinkedList();
+        setPoint(geographicPoint);
     }
 
     public GeographicPoint getPoint() {
@@ -32,6 +37,22 @@ public class MapNode implements Comparable<MapNode>
 
     public void setPoint(GeographicPoint point) {
         this.point = point;
+        double lat = Math.toRadians(point.getX());
+        double lon = Math.toRadians(point.getY());
+        x = Math.cos(lat) * Math.cos(lon);
+        y = Math.cos(lat) * Math.sin(lon);
+        z = Math.sin(lat);
+    }
+
+    /**
+     * Return a lower bound on the distance to another node: the straight
+     * line through the earth, which is never longer than the road
+     *
+     * @param other The other node
+     * @return The distance in km
+     */
+    public double lowerBoundDistance(MapNode other) {
+        return CoordinateArray.chord(x, y, z, other.x, other.y, other.z);
     }
 
     /**
@@ -52,6 +73,13 @@ public class MapNode implements Comparable<MapNode>
         edge.addLast(mapNodeEdge);
     }
 
+    /**
+     * Remove all edges of the vertex
+     */
+    void clearEdges() {
+        edge.clear();
+    }
+
     public double getDistance() {
         return distance;
     }
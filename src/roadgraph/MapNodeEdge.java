@@ -54,6 +54,10 @@ public class MapNodeEdge {
         return streetName;
     }
 
+    public String getRoadType() {
+        return roadType;
+    }
+
     public double getLength() {
         return length;
     }
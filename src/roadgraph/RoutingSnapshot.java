@@ -0,0 +1,449 @@
+package roadgraph;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+import geography.CoordinateArray;
+import geography.GeographicPoint;
+
+/**
+ * Class RoutingSnapshot
+ * Purpose and description of class:
+ * A read only copy of a MapGraph laid out for fast searches. Intersections
+ * are numbered 0..n-1 and the edges are stored in CSR form (compressed
+ * sparse rows): the edges leaving node i are edgeTarget[edgeStart[i]] up to
+ * edgeTarget[edgeStart[i + 1]], with their lengths and travel times in
+ * parallel arrays.
+ * <p>
+ * The numbering decides how well a search uses the CPU caches. A MapGraph
+ * hands out its intersections in hash order, which scatters neighbours over
+ * the whole array; ordering them along a Hilbert curve (or in breadth first
+ * order) keeps intersections that are close on the map close in memory, so
+ * the nodes a search relaxes next are usually already cached. The external
+ * mapping between GeographicPoints and ids is kept.
+ * <p>
+ * The searches reuse their working arrays, so a snapshot must not be
+ * searched by several threads at once.
+ */
+public class RoutingSnapshot {
+
+    /**
+     * How to number the intersections
+     */
+    public enum Order {
+        /** In the iteration order of the MapGraph */
+        NONE,
+        /** Along a Hilbert curve over the bounding box of the map */
+        HILBERT,
+        /** Breadth first over the roads, ignoring their direction */
+        BFS
+    }
+
+    private final GeographicPoint[] points;
+    private final HashMap<GeographicPoint, Integer> ids;
+    private final CoordinateArray coordinates;
+
+    private final int[] edgeStart;
+    private final int[] edgeTarget;
+    private final double[] edgeLength;
+    private final double[] edgeTime;
+    private final String[] edgeName;
+    private final String[] edgeType;
+    private final double maxSpeed;
+
+    // Search state, reset lazily: an entry is valid only when its stamp
+    // matches the current search
+    private final double[] distance;
+    private final int[] parent;
+    private final int[] stamp;
+    private final boolean[] settled;
+    private int currentStamp;
+
+    private RoutingSnapshot(MapGraph graph, Order order) {
+        List<GeographicPoint> vertices = new ArrayList<>(graph.getVertices());
+        int n = vertices.size();
+        HashMap<GeographicPoint, Integer> original = new HashMap<>();
+        for (int i = 0; i < n; i++) {
+            original.put(vertices.get(i), i);
+        }
+
+        int[] rank;
+        switch (order) {
+            case HILBERT:
+                rank = hilbertOrder(vertices);
+                break;
+            case BFS:
+                rank = bfsOrder(graph, vertices, original);
+                break;
+            default:
+                rank = new int[n];
+                for (int i = 0; i < n; i++) {
+                    rank[i] = i;
+                }
+        }
+
+        // rank[k] is the original index of new node k
+        points = new GeographicPoint[n];
+        ids = new HashMap<>();
+        for (int k = 0; k < n; k++) {
+            points[k] = vertices.get(rank[k]);
+            ids.put(points[k], k);
+        }
+        coordinates = new CoordinateArray(Arrays.asList(points));
+
+        edgeStart = new int[n + 1];
+        for (int k = 0; k < n; k++) {
+            edgeStart[k + 1] = edgeStart[k] + graph.getEdges(points[k]).size();
+        }
+        int m = edgeStart[n];
+        edgeTarget = new int[m];
+        edgeLength = new double[m];
+        edgeTime = new double[m];
+        edgeName = new String[m];
+        edgeType = new String[m];
+        double fastest = 0;
+        int e = 0;
+        for (int k = 0; k < n; k++) {
+            for (MapNodeEdge edge : graph.getEdges(points[k])) {
+                edgeTarget[e] = ids.get(edge.getEnd());
+                edgeLength[e] = edge.getLength();
+                edgeTime[e] = edge.getTime();
+                edgeName[e] = edge.getStreetName();
+                edgeType[e] = edge.getRoadType();
+                if (edgeTime[e] > 0) {
+                    fastest = Math.max(fastest, edgeLength[e] / edgeTime[e]);
+                }
+                e++;
+            }
+        }
+        maxSpeed = fastest;
+
+        distance = new double[n];
+        parent = new int[n];
+        stamp = new int[n];
+        settled = new boolean[n];
+    }
+
+    /**
+     * Take a snapshot of a graph
+     *
+     * @param graph The graph
+     * @param order How to number the intersections
+     * @return The snapshot
+     */
+    public static RoutingSnapshot build(MapGraph graph, Order order) {
+        return new RoutingSnapshot(graph, order);
+    }
+
+    /**
+     * Take a snapshot of a graph, numbering the intersections along a Hilbert curve
+     *
+     * @param graph The graph
+     * @return The snapshot
+     */
+    public static RoutingSnapshot build(MapGraph graph) {
+        return build(graph, Order.HILBERT);
+    }
+
+    public int getNumNodes() {
+        return points.length;
+    }
+
+    public int getNumEdges() {
+        return edgeTarget.length;
+    }
+
+    /**
+     * Get the id of an intersection
+     *
+     * @param point The location of the intersection
+     * @return The id, or -1 if there is no intersection there
+     */
+    public int getId(GeographicPoint point) {
+        Integer id = ids.get(point);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * Get the location of an intersection
+     *
+     * @param id The id of the intersection
+     * @return GeographicPoint
+     */
+    public GeographicPoint getPoint(int id) {
+        return points[id];
+    }
+
+    public int getOutDegree(int id) {
+        return edgeStart[id + 1] - edgeStart[id];
+    }
+
+    /**
+     * Get the id of the intersection an edge leads to. The edges leaving
+     * node id are numbered edgeStart(id) to edgeStart(id + 1) - 1.
+     */
+    public int getEdgeTarget(int edge) {
+        return edgeTarget[edge];
+    }
+
+    public int getEdgeStart(int id) {
+        return edgeStart[id];
+    }
+
+    public double getEdgeLength(int edge) {
+        return edgeLength[edge];
+    }
+
+    public String getEdgeName(int edge) {
+        return edgeName[edge];
+    }
+
+    public String getEdgeType(int edge) {
+        return edgeType[edge];
+    }
+
+    /**
+     * Find the fastest path from start to goal with Dijkstra's algorithm
+     *
+     * @param start The starting location
+     * @param goal  The goal location
+     * @return The list of intersections that form the fastest path from
+     * start to goal (including both start and goal), or null if there is none
+     */
+    public List<GeographicPoint> dijkstra(GeographicPoint start, GeographicPoint goal) {
+        return search(start, goal, false);
+    }
+
+    /**
+     * Find the fastest path from start to goal with A* search. The
+     * heuristic is the straight line distance at the top speed of the map,
+     * which never overestimates, so the path is the same as Dijkstra's.
+     *
+     * @param start The starting location
+     * @param goal  The goal location
+     * @return The list of intersections that form the fastest path from
+     * start to goal (including both start and goal), or null if there is none
+     */
+    public List<GeographicPoint> aStarSearch(GeographicPoint start, GeographicPoint goal) {
+        return search(start, goal, true);
+    }
+
+    private List<GeographicPoint> search(GeographicPoint start, GeographicPoint goal, boolean aStar) {
+        int source = getId(start);
+        int target = getId(goal);
+        if (source < 0 || target < 0) {
+            return null;
+        }
+        boolean useHeuristic = aStar && maxSpeed > 0;
+
+        if (++currentStamp == 0) {
+            Arrays.fill(stamp, 0);
+            currentStamp = 1;
+        }
+        IntHeap queue = new IntHeap();
+        reach(source, 0, -1);
+        queue.push(0, source);
+
+        while (queue.size > 0) {
+            int node = queue.pop();
+            if (settled[node]) {
+                continue;
+            }
+            settled[node] = true;
+            if (node == target) {
+                return path(source, target);
+            }
+            double base = distance[node];
+            for (int e = edgeStart[node]; e < edgeStart[node + 1]; e++) {
+                int next = edgeTarget[e];
+                double d = base + edgeTime[e];
+                if (stamp[next] != currentStamp) {
+                    reach(next, d, node);
+                } else if (settled[next] || d >= distance[next]) {
+                    continue;
+                } else {
+                    distance[next] = d;
+                    parent[next] = node;
+                }
+                double key = d;
+                if (useHeuristic) {
+                    key += coordinates.lowerBound(next, target) / maxSpeed;
+                }
+                queue.push(key, next);
+            }
+        }
+        return null;
+    }
+
+    private void reach(int node, double d, int from) {
+        stamp[node] = currentStamp;
+        distance[node] = d;
+        parent[node] = from;
+        settled[node] = false;
+    }
+
+    private List<GeographicPoint> path(int source, int target) {
+        List<GeographicPoint> result = new ArrayList<>();
+        for (int node = target; node != -1; node = parent[node]) {
+            result.add(points[node]);
+        }
+        Collections.reverse(result);
+        return result;
+    }
+
+    // Number the vertices along a Hilbert curve through a 2^16 x 2^16 grid
+    // over their bounding box.
+    private static int[] hilbertOrder(List<GeographicPoint> vertices) {
+        int n = vertices.size();
+        double minLat = Double.POSITIVE_INFINITY, maxLat = Double.NEGATIVE_INFINITY;
+        double minLon = Double.POSITIVE_INFINITY, maxLon = Double.NEGATIVE_INFINITY;
+        for (GeographicPoint p : vertices) {
+            minLat = Math.min(minLat, p.getX());
+            maxLat = Math.max(maxLat, p.getX());
+            minLon = Math.min(minLon, p.getY());
+            maxLon = Math.max(maxLon, p.getY());
+        }
+        double latScale = maxLat > minLat ? 65535 / (maxLat - minLat) : 0;
+        double lonScale = maxLon > minLon ? 65535 / (maxLon - minLon) : 0;
+
+        long[] keys = new long[n];
+        for (int i = 0; i < n; i++) {
+            GeographicPoint p = vertices.get(i);
+            int gx = (int) ((p.getY() - minLon) * lonScale);
+            int gy = (int) ((p.getX() - minLat) * latScale);
+            // The index is below 2^32 and i below 2^31, so the key stays positive
+            keys[i] = (hilbertIndex(gx, gy) << 31) | i;
+        }
+        Arrays.sort(keys);
+        int[] rank = new int[n];
+        for (int k = 0; k < n; k++) {
+            rank[k] = (int) (keys[k] & Integer.MAX_VALUE);
+        }
+        return rank;
+    }
+
+    // The distance of a cell along the Hilbert curve filling the 2^16 grid
+    private static long hilbertIndex(int x, int y) {
+        long d = 0;
+        for (int s = 1 << 15; s > 0; s >>= 1) {
+            int rx = (x & s) > 0 ? 1 : 0;
+            int ry = (y & s) > 0 ? 1 : 0;
+            d += (long) s * s * ((3 * rx) ^ ry);
+            // Rotate the quadrant so the curve continues in the right direction
+            if (ry == 0) {
+                if (rx == 1) {
+                    x = s - 1 - x;
+                    y = s - 1 - y;
+                }
+                int t = x;
+                x = y;
+                y = t;
+            }
+        }
+        return d;
+    }
+
+    // Number the vertices in breadth first order over the undirected roads,
+    // starting each component from its lowest numbered vertex and visiting
+    // neighbours nearest first.
+    private static int[] bfsOrder(MapGraph graph, List<GeographicPoint> vertices,
+                                  HashMap<GeographicPoint, Integer> original) {
+        int n = vertices.size();
+        List<List<Integer>> neighbours = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            neighbours.add(new ArrayList<>());
+        }
+        for (int i = 0; i < n; i++) {
+            for (MapNodeEdge edge : graph.getEdges(vertices.get(i))) {
+                int j = original.get(edge.getEnd());
+                neighbours.get(i).add(j);
+                neighbours.get(j).add(i);
+            }
+        }
+
+        int[] rank = new int[n];
+        boolean[] seen = new boolean[n];
+        int count = 0;
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        for (int root = 0; root < n; root++) {
+            if (seen[root]) {
+                continue;
+            }
+            seen[root] = true;
+            queue.add(root);
+            while (!queue.isEmpty()) {
+                int i = queue.remove();
+                rank[count++] = i;
+                GeographicPoint from = vertices.get(i);
+                List<Integer> next = neighbours.get(i);
+                next.sort(Comparator.comparingDouble((Integer j) -> from.distance(vertices.get(j))));
+                for (int j : next) {
+                    if (!seen[j]) {
+                        seen[j] = true;
+                        queue.add(j);
+                    }
+                }
+            }
+        }
+        return rank;
+    }
+
+    /**
+     * A binary min-heap of (key, node) pairs in parallel arrays
+     */
+    private static class IntHeap {
+        double[] keys = new double[64];
+        int[] nodes = new int[64];
+        int size;
+
+        void push(double key, int node) {
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+                nodes = Arrays.copyOf(nodes, size * 2);
+            }
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) / 2;
+                if (keys[parent] <= key) {
+                    break;
+                }
+                keys[i] = keys[parent];
+                nodes[i] = nodes[parent];
+                i = parent;
+            }
+            keys[i] = key;
+            nodes[i] = node;
+        }
+
+        int pop() {
+            int top = nodes[0];
+            size--;
+            double key = keys[size];
+            int node = nodes[size];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && keys[child + 1] < keys[child]) {
+                    child++;
+                }
+                if (keys[child] >= key) {
+                    break;
+                }
+                keys[i] = keys[child];
+                nodes[i] = nodes[child];
+                i = child;
+            }
+            keys[i] = key;
+            nodes[i] = node;
+            return top;
+        }
+    }
+}
@@ -0,0 +1,445 @@
+package roadgraph;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import geography.GeographicPoint;
+import geography.RoadSegment;
+import util.PackedRTree;
+
+/**
+ * Class SpatialIndex
+ * Purpose and description of class:
+ * Finds the intersections and roads of a MapGraph near an arbitrary
+ * location, so routes can be requested from any lat/lon rather than only
+ * from the exact location of an intersection.
+ * <p>
+ * Intersections and the straight pieces of every road (along its full
+ * geometry when the road segments are given) are kept in two packed
+ * R-trees. Coordinates are projected onto a plane which is equirectangular
+ * around the middle latitude of the map, which is accurate to well under a
+ * metre over the extent of a city. The index is a snapshot: rebuild it
+ * after the graph changes.
+ */
+public class SpatialIndex {
+    private double cosLat;
+
+    private GeographicPoint[] nodes;
+    private PackedRTree nodeTree;
+
+    // The directed edges and the pieces of their geometry. Piece i runs from
+    // (pieceX0, pieceY0) to (pieceX1, pieceY1) along edge pieceEdge[i], after
+    // pieceOffset[i] km of the edge. The geometry lists may be views of a
+    // GeometryStore, so the index is built by walking them in order.
+    private MapNodeEdge[] edges;
+    private List<List<GeographicPoint>> edgeGeometry;
+    private double[] geometryLength;
+    private int[] pieceEdge;
+    private double[] pieceOffset;
+    private double[] pieceX0;
+    private double[] pieceY0;
+    private double[] pieceX1;
+    private double[] pieceY1;
+    private PackedRTree pieceTree;
+
+    /**
+     * Index the intersections and roads of a graph, with roads drawn as
+     * straight lines between their intersections
+     *
+     * @param graph The graph to index
+     */
+    public SpatialIndex(MapGraph graph) {
+        this(graph, null);
+    }
+
+    /**
+     * Index the intersections and roads of a graph
+     *
+     * @param graph The graph to index
+     * @param roads The geometry of the roads, as loaded with the graph, or null
+     */
+    public SpatialIndex(MapGraph graph, HashMap<GeographicPoint, HashSet<RoadSegment>> roads) {
+        nodes = graph.getVertices().toArray(new GeographicPoint[0]);
+        double latSum = 0;
+        for (GeographicPoint node : nodes) {
+            latSum += node.getX();
+        }
+        cosLat = Math.cos(Math.toRadians(nodes.length == 0 ? 0 : latSum / nodes.length));
+
+        double[] x = new double[nodes.length];
+        double[] y = new double[nodes.length];
+        for (int i = 0; i < nodes.length; i++) {
+            x[i] = projectX(nodes[i]);
+            y[i] = projectY(nodes[i]);
+        }
+        nodeTree = new PackedRTree(x, y, x, y);
+
+        List<MapNodeEdge> edgeList = new ArrayList<>();
+        edgeGeometry = new ArrayList<>();
+        int pieces = 0;
+        for (GeographicPoint node : nodes) {
+            for (MapNodeEdge edge : graph.getEdges(node)) {
+                List<GeographicPoint> geometry = findGeometry(edge, roads);
+                edgeList.add(edge);
+                edgeGeometry.add(geometry);
+                pieces += geometry.size() - 1;
+            }
+        }
+        edges = edgeList.toArray(new MapNodeEdge[0]);
+
+        pieceEdge = new int[pieces];
+        pieceOffset = new double[pieces];
+        pieceX0 = new double[pieces];
+        pieceY0 = new double[pieces];
+        pieceX1 = new double[pieces];
+        pieceY1 = new double[pieces];
+        double[] minX = new double[pieces];
+        double[] minY = new double[pieces];
+        double[] maxX = new double[pieces];
+        double[] maxY = new double[pieces];
+        int piece = 0;
+        geometryLength = new double[edges.length];
+        for (int e = 0; e < edges.length; e++) {
+            double offset = 0;
+            GeographicPoint a = null;
+            for (GeographicPoint b : edgeGeometry.get(e)) {
+                if (a != null) {
+                    pieceEdge[piece] = e;
+                    pieceOffset[piece] = offset;
+                    pieceX0[piece] = projectX(a);
+                    pieceY0[piece] = projectY(a);
+                    pieceX1[piece] = projectX(b);
+                    pieceY1[piece] = projectY(b);
+                    minX[piece] = Math.min(pieceX0[piece], pieceX1[piece]);
+                    minY[piece] = Math.min(pieceY0[piece], pieceY1[piece]);
+                    maxX[piece] = Math.max(pieceX0[piece], pieceX1[piece]);
+                    maxY[piece] = Math.max(pieceY0[piece], pieceY1[piece]);
+                    offset += a.distance(b);
+                    piece++;
+                }
+                a = b;
+            }
+            geometryLength[e] = offset;
+        }
+        pieceTree = new PackedRTree(minX, minY, maxX, maxY);
+    }
+
+    // The points of an edge from start to end: its road segment if there is
+    // one between the same intersections with the same name and type,
+    // otherwise a straight line. The two directions of a road may differ in
+    // length in the last bits, so the length only picks between candidates.
+    private static List<GeographicPoint> findGeometry(
+            MapNodeEdge edge,
+            HashMap<GeographicPoint, HashSet<RoadSegment>> roads
+    ) {
+        if (roads != null && roads.containsKey(edge.getStart())) {
+            RoadSegment segment = RoadSegment.find(roads.get(edge.getStart()), edge.getStart(),
+                    edge.getEnd(), edge.getStreetName(), edge.getRoadType(), edge.getLength());
+            if (segment != null) {
+                return segment.getPoints(edge.getStart(), edge.getEnd());
+            }
+        }
+        List<GeographicPoint> line = new ArrayList<>(2);
+        line.add(edge.getStart());
+        line.add(edge.getEnd());
+        return line;
+    }
+
+    private double projectX(GeographicPoint point) {
+        return point.getY() * cosLat;
+    }
+
+    private double projectY(GeographicPoint point) {
+        return point.getX();
+    }
+
+    /**
+     * Find the intersection nearest to a location
+     *
+     * @param location Any location
+     * @return The nearest intersection, or null if the graph is empty
+     */
+    public GeographicPoint nearestIntersection(GeographicPoint location) {
+        List<GeographicPoint> nearest = nearestIntersections(location, 1);
+        return nearest.isEmpty() ? null : nearest.get(0);
+    }
+
+    /**
+     * Find the k intersections nearest to a location
+     *
+     * @param location Any location
+     * @param k        The number of intersections to return
+     * @return Up to k intersections, nearest first
+     */
+    public List<GeographicPoint> nearestIntersections(GeographicPoint location, int k) {
+        double x = projectX(location);
+        double y = projectY(location);
+        int[] found = nodeTree.nearest(x, y, k, (i) -> Math.hypot(projectX(nodes[i]) - x, projectY(nodes[i]) - y));
+        List<GeographicPoint> result = new ArrayList<>(found.length);
+        for (int i : found) {
+            result.add(nodes[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Find the point on a road nearest to a location
+     *
+     * @param location Any location
+     * @return The snapped location, or null if the graph has no roads
+     */
+    public Snap snap(GeographicPoint location) {
+        double x = projectX(location);
+        double y = projectY(location);
+        int[] found = pieceTree.nearest(x, y, 1, (p) -> Math.sqrt(pieceDistanceSq(p, x, y)));
+        if (found.length == 0) {
+            return null;
+        }
+        return makeSnap(location, found[0], x, y);
+    }
+
+    /**
+     * Find the nearest points on the k roads nearest to a location. Each
+     * direction of a two way road is a separate road here.
+     *
+     * @param location Any location
+     * @param k        The number of roads
+     * @param radius   The largest distance to look, in km
+     * @return Up to k snapped locations on different edges, nearest first
+     */
+    public List<Snap> snapCandidates(GeographicPoint location, int k, double radius) {
+        double x = projectX(location);
+        double y = projectY(location);
+        // The radius in projected units (degrees of latitude), with a
+        // little slack for the error of the projection
+        double limit = radius / (Math.toRadians(1) * 6373) * 1.01;
+
+        List<Snap> result = new ArrayList<>(k);
+        Set<Integer> seen = new HashSet<>();
+        int want = k * 4;
+        while (true) {
+            int[] found = pieceTree.nearest(x, y, want, (p) -> Math.sqrt(pieceDistanceSq(p, x, y)));
+            result.clear();
+            seen.clear();
+            boolean beyondRadius = false;
+            for (int piece : found) {
+                if (pieceDistanceSq(piece, x, y) > limit * limit) {
+                    beyondRadius = true;
+                    break;
+                }
+                if (seen.add(pieceEdge[piece])) {
+                    result.add(makeSnap(location, piece, x, y));
+                    if (result.size() == k) {
+                        return result;
+                    }
+                }
+            }
+            if (beyondRadius || found.length < want) {
+                return result;
+            }
+            want *= 2;
+        }
+    }
+
+    private Snap makeSnap(GeographicPoint location, int piece, double x, double y) {
+        double t = pieceFraction(piece, x, y);
+        int e = pieceEdge[piece];
+        GeographicPoint a = new GeographicPoint(pieceY0[piece], pieceX0[piece] / cosLat);
+        GeographicPoint point = new GeographicPoint(
+                pieceY0[piece] + t * (pieceY1[piece] - pieceY0[piece]),
+                (pieceX0[piece] + t * (pieceX1[piece] - pieceX0[piece])) / cosLat);
+
+        // Scale the distance along the geometry to the length of the edge
+        double along = pieceOffset[piece] + a.distance(point);
+        double fraction = geometryLength[e] > 0 ? Math.min(1, along / geometryLength[e]) : 0;
+
+        return new Snap(location, point, edges[e], fraction);
+    }
+
+    // The fraction of the way along a piece of the point nearest (x, y)
+    private double pieceFraction(int p, double x, double y) {
+        double dx = pieceX1[p] - pieceX0[p];
+        double dy = pieceY1[p] - pieceY0[p];
+        double lengthSq = dx * dx + dy * dy;
+        if (lengthSq == 0) {
+            return 0;
+        }
+        double t = ((x - pieceX0[p]) * dx + (y - pieceY0[p]) * dy) / lengthSq;
+        return Math.max(0, Math.min(1, t));
+    }
+
+    private double pieceDistanceSq(int p, double x, double y) {
+        double t = pieceFraction(p, x, y);
+        double px = pieceX0[p] + t * (pieceX1[p] - pieceX0[p]) - x;
+        double py = pieceY0[p] + t * (pieceY1[p] - pieceY0[p]) - y;
+        return px * px + py * py;
+    }
+
+    /**
+     * Class Snap
+     * Purpose and description of class:
+     * A location moved onto the nearest road. It can be attached to a graph
+     * as a temporary intersection which splits the road in two, so that it
+     * can be used as the start or goal of any search, and detached again
+     * afterwards.
+     */
+    public static class Snap {
+        private final GeographicPoint location;
+        private final GeographicPoint point;
+        private final MapNodeEdge edge;
+        private final double fraction;
+
+        private MapGraph attachedTo;
+        private List<GeographicPoint> touched;
+
+        Snap(GeographicPoint location, GeographicPoint point, MapNodeEdge edge, double fraction) {
+            this.location = location;
+            this.point = point;
+            this.edge = edge;
+            this.fraction = fraction;
+        }
+
+        /**
+         * Get the location which was snapped
+         *
+         * @return GeographicPoint
+         */
+        public GeographicPoint getLocation() {
+            return location;
+        }
+
+        /**
+         * Get the location on the road
+         *
+         * @return GeographicPoint
+         */
+        public GeographicPoint getPoint() {
+            return point;
+        }
+
+        /**
+         * Get the distance from the original location to the road, in km
+         *
+         * @return double
+         */
+        public double getDistance() {
+            return location.distance(point);
+        }
+
+        /**
+         * Get the edge the location was snapped onto
+         *
+         * @return MapNodeEdge
+         */
+        public MapNodeEdge getEdge() {
+            return edge;
+        }
+
+        /**
+         * Get how far along its edge the point is, from 0 at the start to 1 at the end
+         *
+         * @return double
+         */
+        public double getFraction() {
+            return fraction;
+        }
+
+        /**
+         * Add the snapped point to a graph, splitting the road it lies on.
+         * The road's edges are kept; the point gets edges to and from both
+         * ends of the road, in each direction the road can be driven. If the
+         * point is already an intersection of the graph, such as an end of
+         * the road, that intersection is used instead.
+         *
+         * @param graph The graph the index was built from
+         * @return The vertex to pass to the search methods
+         */
+        public GeographicPoint attach(MapGraph graph) {
+            GeographicPoint start = edge.getStart();
+            GeographicPoint end = edge.getEnd();
+            if (fraction <= 0 || point.equals(start)) {
+                return start;
+            }
+            if (fraction >= 1 || point.equals(end)) {
+                return end;
+            }
+            if (attachedTo != null) {
+                throw new IllegalStateException("Snap is already attached");
+            }
+            if (graph.getVertices().contains(point)) {
+                return point;
+            }
+
+            double toStart = edge.getLength() * fraction;
+            double toEnd = edge.getLength() - toStart;
+            String name = edge.getStreetName();
+            String type = edge.getRoadType();
+
+            // Splitting a road changes no route between intersections, so
+            // the component index is kept; the point is labelled like the
+            // road's start when it can be driven both ways, and otherwise
+            // left unknown to the index, which never rules a route out then
+            ComponentIndex components = graph.getBuiltComponentIndex();
+            graph.addVertex(point);
+            graph.addEdge(start, point, name, type, toStart);
+            graph.addEdge(point, end, name, type, toEnd);
+            touched = new ArrayList<>();
+            touched.add(start);
+            MapNodeEdge reverse = findReverse(graph, edge);
+            if (reverse != null) {
+                double backToStart = reverse.getLength() * fraction;
+                graph.addEdge(end, point, name, type, reverse.getLength() - backToStart);
+                graph.addEdge(point, start, name, type, backToStart);
+                touched.add(end);
+                if (components != null) {
+                    components.addAlias(point, start);
+                }
+            }
+            graph.restoreComponentIndex(components);
+            attachedTo = graph;
+            return point;
+        }
+
+        // The edge driving the same road the other way: from the end of the
+        // edge to its start with the same name, type and geometry. The other
+        // carriageway of a divided road has its own geometry, and so its own
+        // length, so the edge is one-way then.
+        private static MapNodeEdge findReverse(MapGraph graph, MapNodeEdge edge) {
+            for (MapNodeEdge reverse : graph.getEdges(edge.getEnd())) {
+                if (reverse.getEnd().equals(edge.getStart())
+                        && reverse.getStreetName().equals(edge.getStreetName())
+                        && reverse.getRoadType().equals(edge.getRoadType())
+                        && RoadSegment.sameLength(reverse.getLength(), edge.getLength())) {
+                    return reverse;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Remove the temporary intersection added by attach, and any cached
+         * routes to or from it
+         */
+        public void detach() {
+            if (attachedTo == null) {
+                return;
+            }
+            ComponentIndex components = attachedTo.getBuiltComponentIndex();
+            for (GeographicPoint from : touched) {
+                attachedTo.removeEdges(from, point);
+            }
+            attachedTo.removeVertex(point);
+            if (components != null) {
+                components.removeAlias(point);
+            }
+            attachedTo.restoreComponentIndex(components);
+            attachedTo.invalidateRoutesThrough(Collections.singleton(point));
+            attachedTo = null;
+            touched = null;
+        }
+    }
+}
@@ -0,0 +1,373 @@
+package roadgraph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeSet;
+
+import geography.GeographicPoint;
+
+/**
+ * Class StreetIndex
+ * Purpose and description of class:
+ * An offline geocoder for a loaded MapGraph, built from the street names of
+ * its edges. It answers three questions without any network access:
+ * <ul>
+ * <li>which streets have a name starting with a prefix (or a word of their
+ * name starting with it, so "main" finds "North Main Street"),</li>
+ * <li>where two streets cross,</li>
+ * <li>which street is nearest to a location (through a SpatialIndex).</li>
+ * </ul>
+ * Names are matched ignoring case and repeated spaces. Prefix search walks
+ * a trie stored in flat arrays: the children of each node are contiguous and
+ * sorted by character, and as the keys are sorted every node covers a
+ * contiguous range of them, so a search costs one binary search per
+ * character of the prefix plus the results. Like SpatialIndex the index is
+ * a snapshot: rebuild it after the graph changes.
+ */
+public class StreetIndex {
+    private SpatialIndex spatialIndex;
+
+    // The streets, sorted by normalized name, with the intersections on each
+    private String[] names;
+    private HashMap<String, Integer> nameIds = new HashMap<>();
+    private GeographicPoint[][] streetPoints;
+    private HashMap<GeographicPoint, int[]> streetsAtPoint = new HashMap<>();
+
+    // The intersections where each pair of streets meets, keyed by pairKey
+    private HashMap<Long, List<GeographicPoint>> crossings = new HashMap<>();
+
+    // Sorted search keys (every name and every word suffix of it) and the
+    // street of each
+    private String[] keys;
+    private int[] keyStreet;
+
+    // The trie over keys. Node 0 is the root; node i has the label
+    // character label[i], children childStart[i] to childEnd[i] - 1 and
+    // covers keys keyStart[i] to keyEnd[i] - 1.
+    private char[] label;
+    private int[] childStart;
+    private int[] childEnd;
+    private int[] keyStart;
+    private int[] keyEnd;
+    private int numNodes;
+
+    /**
+     * Index the streets of a graph
+     *
+     * @param graph        The graph to index
+     * @param spatialIndex A spatial index of the same graph, for reverse geocoding
+     */
+    public StreetIndex(MapGraph graph, SpatialIndex spatialIndex) {
+        this.spatialIndex = spatialIndex;
+
+        // The display name of each street, and the streets at each intersection
+        HashMap<String, String> displayNames = new HashMap<>();
+        HashMap<GeographicPoint, Set<String>> streetsAt = new HashMap<>();
+        for (GeographicPoint vertex : graph.getVertices()) {
+            for (MapNodeEdge edge : graph.getEdges(vertex)) {
+                String key = normalize(edge.getStreetName());
+                if (key.isEmpty()) {
+                    continue;
+                }
+                if (!displayNames.containsKey(key)) {
+                    displayNames.put(key, edge.getStreetName().trim());
+                }
+                streetsAt.computeIfAbsent(edge.getStart(), p -> new HashSet<>()).add(key);
+                streetsAt.computeIfAbsent(edge.getEnd(), p -> new HashSet<>()).add(key);
+            }
+        }
+
+        String[] sorted = displayNames.keySet().toArray(new String[0]);
+        Arrays.sort(sorted);
+        names = new String[sorted.length];
+        for (int i = 0; i < sorted.length; i++) {
+            names[i] = displayNames.get(sorted[i]);
+            nameIds.put(sorted[i], i);
+        }
+
+        List<List<GeographicPoint>> points = new ArrayList<>();
+        for (int i = 0; i < names.length; i++) {
+            points.add(new ArrayList<>());
+        }
+        for (GeographicPoint vertex : streetsAt.keySet()) {
+            int[] ids = new int[streetsAt.get(vertex).size()];
+            int n = 0;
+            for (String street : streetsAt.get(vertex)) {
+                ids[n++] = nameIds.get(street);
+            }
+            Arrays.sort(ids);
+            streetsAtPoint.put(vertex, ids);
+            for (int i = 0; i < n; i++) {
+                points.get(ids[i]).add(vertex);
+                for (int j = i + 1; j < n; j++) {
+                    crossings.computeIfAbsent(pairKey(ids[i], ids[j]), k -> new ArrayList<>()).add(vertex);
+                }
+            }
+        }
+        streetPoints = new GeographicPoint[names.length][];
+        for (int i = 0; i < names.length; i++) {
+            streetPoints[i] = points.get(i).toArray(new GeographicPoint[0]);
+        }
+
+        buildKeys(sorted);
+        buildTrie();
+    }
+
+    // Every street is found by its whole name and by each word of it onwards
+    private void buildKeys(String[] sorted) {
+        List<String> allKeys = new ArrayList<>();
+        List<Integer> allStreets = new ArrayList<>();
+        for (int i = 0; i < sorted.length; i++) {
+            String name = sorted[i];
+            allKeys.add(name);
+            allStreets.add(i);
+            for (int space = name.indexOf(' '); space >= 0; space = name.indexOf(' ', space + 1)) {
+                allKeys.add(name.substring(space + 1));
+                allStreets.add(i);
+            }
+        }
+        Integer[] order = new Integer[allKeys.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> allKeys.get(a).compareTo(allKeys.get(b)));
+        keys = new String[order.length];
+        keyStreet = new int[order.length];
+        for (int i = 0; i < order.length; i++) {
+            keys[i] = allKeys.get(order[i]);
+            keyStreet[i] = allStreets.get(order[i]);
+        }
+    }
+
+    // Build the trie breadth first, so the children of each node are
+    // created one after the other
+    private void buildTrie() {
+        int capacity = 16;
+        label = new char[capacity];
+        childStart = new int[capacity];
+        childEnd = new int[capacity];
+        keyStart = new int[capacity];
+        keyEnd = new int[capacity];
+        int[] depth = new int[capacity];
+
+        numNodes = 1;
+        keyEnd[0] = keys.length;
+        for (int node = 0; node < numNodes; node++) {
+            int d = depth[node];
+            int i = keyStart[node];
+            int end = keyEnd[node];
+            // Keys which end at this node sort first
+            while (i < end && keys[i].length() == d) {
+                i++;
+            }
+            childStart[node] = numNodes;
+            while (i < end) {
+                char c = keys[i].charAt(d);
+                int j = i + 1;
+                while (j < end && keys[j].charAt(d) == c) {
+                    j++;
+                }
+                if (numNodes == label.length) {
+                    capacity = label.length * 2;
+                    label = Arrays.copyOf(label, capacity);
+                    childStart = Arrays.copyOf(childStart, capacity);
+                    childEnd = Arrays.copyOf(childEnd, capacity);
+                    keyStart = Arrays.copyOf(keyStart, capacity);
+                    keyEnd = Arrays.copyOf(keyEnd, capacity);
+                    depth = Arrays.copyOf(depth, capacity);
+                }
+                label[numNodes] = c;
+                keyStart[numNodes] = i;
+                keyEnd[numNodes] = j;
+                depth[numNodes] = d + 1;
+                numNodes++;
+                i = j;
+            }
+            childEnd[node] = numNodes;
+        }
+    }
+
+    /**
+     * Find the streets whose name, or a word of whose name onwards, starts
+     * with a prefix
+     *
+     * @param prefix The start of the name
+     * @param limit  The largest number of streets to return
+     * @return The names of the streets, in alphabetical order
+     */
+    public List<String> searchStreets(String prefix, int limit) {
+        String key = normalize(prefix);
+        int node = 0;
+        for (int i = 0; i < key.length() && node >= 0; i++) {
+            node = findChild(node, key.charAt(i));
+        }
+        if (node < 0) {
+            return Collections.emptyList();
+        }
+        TreeSet<Integer> streets = new TreeSet<>();
+        for (int k = keyStart[node]; k < keyEnd[node]; k++) {
+            streets.add(keyStreet[k]);
+        }
+        List<String> result = new ArrayList<>();
+        for (int street : streets) {
+            if (result.size() == limit) {
+                break;
+            }
+            result.add(names[street]);
+        }
+        return result;
+    }
+
+    private int findChild(int node, char c) {
+        int lo = childStart[node];
+        int hi = childEnd[node] - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (label[mid] < c) {
+                lo = mid + 1;
+            } else if (label[mid] > c) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Get the intersections on a street
+     *
+     * @param street The name of the street
+     * @return The intersections, or an empty list if there is no such street
+     */
+    public List<GeographicPoint> getIntersections(String street) {
+        Integer id = nameIds.get(normalize(street));
+        if (id == null) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(Arrays.asList(streetPoints[id]));
+    }
+
+    /**
+     * Find where two streets meet
+     *
+     * @param street1 The name of one street
+     * @param street2 The name of the other street
+     * @return The intersections the two streets share, or an empty list
+     */
+    public List<GeographicPoint> findIntersections(String street1, String street2) {
+        Integer id1 = nameIds.get(normalize(street1));
+        Integer id2 = nameIds.get(normalize(street2));
+        if (id1 == null || id2 == null || id1.equals(id2)) {
+            return Collections.emptyList();
+        }
+        List<GeographicPoint> found = crossings.get(pairKey(Math.min(id1, id2), Math.max(id1, id2)));
+        if (found == null) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(found);
+    }
+
+    /**
+     * Describe a location by the nearest road
+     *
+     * @param location The location
+     * @return The nearest road and its nearest cross street, or null if the
+     * graph has no roads
+     */
+    public Address reverseGeocode(GeographicPoint location) {
+        SpatialIndex.Snap snap = spatialIndex.snap(location);
+        if (snap == null) {
+            return null;
+        }
+        MapNodeEdge edge = snap.getEdge();
+        GeographicPoint corner = snap.getFraction() <= 0.5 ? edge.getStart() : edge.getEnd();
+        String street = normalize(edge.getStreetName());
+        Integer id = nameIds.get(street);
+
+        // Any other street through the nearer end of the road
+        String crossStreet = null;
+        int[] streets = streetsAtPoint.get(corner);
+        if (streets != null) {
+            for (int other : streets) {
+                if (id == null || other != id) {
+                    crossStreet = names[other];
+                    break;
+                }
+            }
+        }
+        return new Address(id == null ? edge.getStreetName() : names[id], crossStreet, corner, snap);
+    }
+
+    private static long pairKey(int lower, int higher) {
+        return ((long) lower << 32) | higher;
+    }
+
+    private static String normalize(String name) {
+        if (name == null) {
+            return "";
+        }
+        return name.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Class Address
+     * Purpose and description of class:
+     * The answer of reverseGeocode: the street a location is on and the
+     * nearest cross street.
+     */
+    public static class Address {
+        private String street;
+        private String crossStreet;
+        private GeographicPoint corner;
+        private SpatialIndex.Snap snap;
+
+        Address(String street, String crossStreet, GeographicPoint corner, SpatialIndex.Snap snap) {
+            this.street = street;
+            this.crossStreet = crossStreet;
+            this.corner = corner;
+            this.snap = snap;
+        }
+
+        public String getStreet() {
+            return street;
+        }
+
+        /**
+         * Get the name of another street at the nearer end of the road
+         *
+         * @return The name, or null if no other street meets the road there
+         */
+        public String getCrossStreet() {
+            return crossStreet;
+        }
+
+        /**
+         * Get the intersection at the nearer end of the road
+         *
+         * @return GeographicPoint
+         */
+        public GeographicPoint getCorner() {
+            return corner;
+        }
+
+        /**
+         * Get the point on the road nearest to the location
+         *
+         * @return The snap, with the road and the distance to it
+         */
+        public SpatialIndex.Snap getSnap() {
+            return snap;
+        }
+
+        public String toString() {
+            return crossStreet == null ? street : street + " at " + crossStreet;
+        }
+    }
+}
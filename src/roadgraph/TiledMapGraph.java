@@ -0,0 +1,200 @@
+package roadgraph;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import geography.GeographicPoint;
+import util.MapFileReader;
+import util.MapTiler;
+
+/**
+ * Class TiledMapGraph
+ * Purpose and description of class:
+ * A MapGraph over a directory of tiles written by util.MapTiler. Tiles are
+ * read from disk when a search first reaches one of their intersections and
+ * are kept in an LRU cache, so memory follows the area a search explores
+ * rather than the whole map. Tiles touched by a running search are never
+ * evicted until it finishes; the cache may grow past its limit meanwhile.
+ */
+public class TiledMapGraph extends MapGraph {
+    private File directory;
+    private double tileSize;
+    private Set<Long> tiles;
+    private LinkedHashMap<Long, List<GeographicPoint>> loaded;
+    private Set<Long> pinned;
+    private int maxTiles;
+    private boolean searching;
+
+    /**
+     * Open a tile directory
+     *
+     * @param tileDirectory The directory written by MapTiler
+     * @param maxTiles      The number of tiles to keep in memory between searches
+     */
+    public TiledMapGraph(String tileDirectory, int maxTiles) throws IOException {
+        this.directory = new File(tileDirectory);
+        this.maxTiles = Math.max(1, maxTiles);
+        this.tiles = new HashSet<>();
+        this.loaded = new LinkedHashMap<>(16, 0.75f, true);
+        this.pinned = new HashSet<>();
+
+        try (BufferedReader reader = new BufferedReader(
+                new FileReader(new File(directory, MapTiler.INDEX_FILE)))) {
+            String line = reader.readLine();
+            if (line == null) {
+                throw new IOException("Tile index is empty");
+            }
+            this.tileSize = Double.parseDouble(line.trim());
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split(" ", 3);
+                tiles.add(MapTiler.tileKey(Integer.parseInt(fields[0]), Integer.parseInt(fields[1])));
+            }
+        }
+    }
+
+    public int getNumLoadedTiles() {
+        return loaded.size();
+    }
+
+    @Override
+    public List<GeographicPoint> bfs(
+            GeographicPoint start,
+            GeographicPoint goal,
+            Consumer<GeographicPoint> nodeSearched
+    ) {
+        beginSearch();
+        try {
+            return super.bfs(start, goal, nodeSearched);
+        } finally {
+            endSearch();
+        }
+    }
+
+    @Override
+    public List<GeographicPoint> dijkstra(
+            GeographicPoint start,
+            GeographicPoint goal,
+            Consumer<GeographicPoint> nodeSearched
+    ) {
+        beginSearch();
+        try {
+            return super.dijkstra(start, goal, nodeSearched);
+        } finally {
+            endSearch();
+        }
+    }
+
+    @Override
+    public List<GeographicPoint> aStarSearch(
+            GeographicPoint start,
+            GeographicPoint goal,
+            Consumer<GeographicPoint> nodeSearched
+    ) {
+        beginSearch();
+        try {
+            return super.aStarSearch(start, goal, nodeSearched);
+        } finally {
+            endSearch();
+        }
+    }
+
+    /**
+     * Only the tiles in memory are known, which is not enough to rule a
+     * route out
+     */
+    @Override
+    protected boolean mayReach(GeographicPoint start, GeographicPoint goal) {
+        return true;
+    }
+
+    /**
+     * Return the node at the location, reading its tile if needed
+     */
+    @Override
+    protected MapNode getNode(GeographicPoint location) {
+        long key = MapTiler.tileKey(MapTiler.tileRow(location.getX(), tileSize),
+                MapTiler.tileCol(location.getY(), tileSize));
+        if (searching) {
+            pinned.add(key);
+        }
+        if (loaded.get(key) == null && tiles.contains(key)) {
+            loadTile(key);
+        }
+        return getLoadedNode(location);
+    }
+
+    private void beginSearch() {
+        searching = true;
+        pinned.clear();
+    }
+
+    private void endSearch() {
+        searching = false;
+        pinned.clear();
+        trimCache();
+    }
+
+    private void loadTile(long key) {
+        int row = (int) (key >> 32);
+        int col = (int) key;
+        File file = new File(directory, MapTiler.tileFileName(row, col));
+        List<GeographicPoint> tileNodes = new ArrayList<>();
+
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("N ")) {
+                    String[] fields = line.split(" ");
+                    GeographicPoint point = new GeographicPoint(
+                            Double.parseDouble(fields[1]), Double.parseDouble(fields[2]));
+                    addVertex(point);
+                    // Searches reset distances before they start, so nodes
+                    // arriving mid-search must start out unreached.
+                    getLoadedNode(point).setDistance(Integer.MAX_VALUE);
+                    tileNodes.add(point);
+                } else if (line.startsWith("E ")) {
+                    int lengthEnd = line.indexOf(' ', 2);
+                    double length = Double.parseDouble(line.substring(2, lengthEnd));
+                    MapFileReader.parseLine(line.substring(lengthEnd + 1),
+                            (lat1, lon1, lat2, lon2, roadName, roadType) -> {
+                                GeographicPoint from = new GeographicPoint(lat1, lon1);
+                                GeographicPoint to = new GeographicPoint(lat2, lon2);
+                                getLoadedNode(from).addEdge(
+                                        new MapNodeEdge(from, to, roadName, roadType, length));
+                            });
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Problem loading tile file: " + file);
+            e.printStackTrace();
+        }
+
+        loaded.put(key, tileNodes);
+        trimCache();
+    }
+
+    // Evict the least recently used tiles that are not in use by a search
+    private void trimCache() {
+        Iterator<Map.Entry<Long, List<GeographicPoint>>> it = loaded.entrySet().iterator();
+        while (loaded.size() > maxTiles && it.hasNext()) {
+            Map.Entry<Long, List<GeographicPoint>> entry = it.next();
+            if (pinned.contains(entry.getKey())) {
+                continue;
+            }
+            for (GeographicPoint point : entry.getValue()) {
+                removeVertex(point);
+            }
+            it.remove();
+        }
+    }
+}
@@ -0,0 +1,46 @@
+/**
+ * A RoadMapSink that builds a basicgraph.Graph.  Intersections are
+ * numbered in the order they are reported.
+ */
+package util;
+
+import java.util.HashMap;
+import java.util.List;
+
+import basicgraph.Graph;
+import geography.GeographicPoint;
+
+public class BasicGraphSink implements RoadMapSink
+{
+	private Graph graph;
+	private HashMap<GeographicPoint,Integer> vertexNums;
+
+	/**
+	 * @param graph The graph to load the map into.
+	 */
+	public BasicGraphSink(Graph graph)
+	{
+		this.graph = graph;
+		this.vertexNums = new HashMap<GeographicPoint,Integer>();
+	}
+
+	public void addIntersection(GeographicPoint pt)
+	{
+		vertexNums.put(pt, graph.addVertex());
+	}
+
+	public void addEdge(GeographicPoint from, GeographicPoint to, String roadName,
+			String roadType, double length, List<GeographicPoint> geometry)
+	{
+		graph.addEdge(vertexNums.get(from), vertexNums.get(to));
+	}
+
+	/**
+	 * @param pt An intersection.
+	 * @return The vertex number of the intersection, or null if it is not one.
+	 */
+	public Integer getVertexNum(GeographicPoint pt)
+	{
+		return vertexNums.get(pt);
+	}
+}
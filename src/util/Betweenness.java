@@ -0,0 +1,469 @@
+/**
+ * Betweenness centrality by Brandes' algorithm, for ranking the
+ * intersections or airports which the most shortest paths pass through.
+ *
+ * The graph is copied into flat arrays (CSR form) when the engine is
+ * created, from a basicgraph.Graph with every edge of length one or from
+ * a roadgraph.MapGraph with the travel time of each road as its length.
+ * One shortest path search is run from every source, each followed by the
+ * dependency accumulation of Brandes; the sources are split over the
+ * threads of a ForkJoin pool, every task adds into its own array of
+ * scores, and the arrays are summed as the tasks join.
+ *
+ * In sampling mode only a random subset of the sources is searched and
+ * the scores are scaled up by the fraction left out, which estimates the
+ * exact scores at a fraction of the cost on big graphs.
+ *
+ * Usage: Betweenness (-map FILE | -routes FILE) [top [samples]]
+ */
+package util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import basicgraph.Graph;
+import basicgraph.GraphAdjList;
+import geography.GeographicPoint;
+import roadgraph.MapGraph;
+import roadgraph.MapNodeEdge;
+
+public class Betweenness
+{
+	// Sources searched by one task before it stops splitting
+	private static final int MIN_SOURCES_PER_TASK = 8;
+
+	private final int n;
+	private final int[] edgeStart;
+	private final int[] edgeTarget;
+	// The length of each edge, or null when every edge has length one
+	private final double[] edgeLength;
+	private final String[] labels;
+	private final GeographicPoint[] points;
+
+	private int parallelism = ForkJoinPool.getCommonPoolParallelism();
+	private int samples = 0;
+	private long seed = 1;
+
+	private Betweenness(int n, int[] edgeStart, int[] edgeTarget, double[] edgeLength,
+			String[] labels, GeographicPoint[] points)
+	{
+		this.n = n;
+		this.edgeStart = edgeStart;
+		this.edgeTarget = edgeTarget;
+		this.edgeLength = edgeLength;
+		this.labels = labels;
+		this.points = points;
+	}
+
+	/**
+	 * Prepare to rank the vertices of a graph, counting hops.
+	 * @param graph The graph.
+	 * @return The engine, whose vertex i is vertex i of the graph.
+	 */
+	public static Betweenness of(Graph graph)
+	{
+		int n = graph.getNumVertices();
+		int[] edgeStart = new int[n + 1];
+		for (int v = 0; v < n; v++) {
+			edgeStart[v + 1] = edgeStart[v] + graph.getOutDegree(v);
+		}
+		int[] edgeTarget = new int[edgeStart[n]];
+		int[] next = Arrays.copyOf(edgeStart, n);
+		for (int v = 0; v < n; v++) {
+			int from = v;
+			graph.forEachNeighbor(v, w -> edgeTarget[next[from]++] = w);
+		}
+		String[] labels = new String[n];
+		for (int v = 0; v < n; v++) {
+			labels[v] = graph.getLabel(v);
+		}
+		return new Betweenness(n, edgeStart, edgeTarget, null, labels, null);
+	}
+
+	/**
+	 * Prepare to rank the intersections of a road graph, by travel time.
+	 * @param graph The graph.
+	 * @return The engine; getPoint gives the intersection of each vertex.
+	 */
+	public static Betweenness of(MapGraph graph)
+	{
+		GeographicPoint[] points = graph.getVertices().toArray(new GeographicPoint[0]);
+		int n = points.length;
+		HashMap<GeographicPoint, Integer> ids = new HashMap<GeographicPoint, Integer>();
+		for (int i = 0; i < n; i++) {
+			ids.put(points[i], i);
+		}
+		int[] edgeStart = new int[n + 1];
+		for (int i = 0; i < n; i++) {
+			edgeStart[i + 1] = edgeStart[i] + graph.getEdges(points[i]).size();
+		}
+		int[] edgeTarget = new int[edgeStart[n]];
+		double[] edgeLength = new double[edgeStart[n]];
+		for (int i = 0; i < n; i++) {
+			int e = edgeStart[i];
+			for (MapNodeEdge edge : graph.getEdges(points[i])) {
+				edgeTarget[e] = ids.get(edge.getEnd());
+				edgeLength[e] = edge.getTime();
+				e++;
+			}
+		}
+		String[] labels = new String[n];
+		for (int i = 0; i < n; i++) {
+			labels[i] = points[i].toString();
+		}
+		return new Betweenness(n, edgeStart, edgeTarget, edgeLength, labels, points);
+	}
+
+	/**
+	 * Set the number of threads to search with.
+	 * @param parallelism The number of threads, 1 to run in the caller.
+	 */
+	public void setParallelism(int parallelism)
+	{
+		this.parallelism = Math.max(1, parallelism);
+	}
+
+	/**
+	 * Search from a random sample of the sources only.
+	 * @param samples The number of sources, or 0 to search from all.
+	 * @param seed The seed of the random choice.
+	 */
+	public void setSampling(int samples, long seed)
+	{
+		this.samples = Math.max(0, samples);
+		this.seed = seed;
+	}
+
+	/** @return The number of vertices. */
+	public int getNumVertices()
+	{
+		return n;
+	}
+
+	/** @return The label of a vertex, or null if it has none. */
+	public String getLabel(int v)
+	{
+		return labels[v];
+	}
+
+	/** @return The intersection of a vertex, or null for a basicgraph.Graph. */
+	public GeographicPoint getPoint(int v)
+	{
+		return points == null ? null : points[v];
+	}
+
+	/**
+	 * Compute the betweenness of every vertex: the number of shortest
+	 * paths between other vertices which pass through it, each pair's
+	 * paths counting as one in total.  Paths are directed.
+	 * @return The score of vertex i at index i (estimated when sampling).
+	 */
+	public double[] compute()
+	{
+		int[] sources;
+		if (samples > 0 && samples < n) {
+			sources = sample(n, samples, seed);
+		}
+		else {
+			sources = new int[n];
+			for (int i = 0; i < n; i++) {
+				sources[i] = i;
+			}
+		}
+
+		double[] scores;
+		if (parallelism == 1) {
+			scores = new SourceTask(sources, 0, sources.length, Integer.MAX_VALUE).compute();
+		}
+		else {
+			int chunk = Math.max(MIN_SOURCES_PER_TASK, sources.length / (parallelism * 4));
+			ForkJoinPool pool = new ForkJoinPool(parallelism);
+			try {
+				scores = pool.invoke(new SourceTask(sources, 0, sources.length, chunk));
+			}
+			finally {
+				pool.shutdown();
+			}
+		}
+
+		if (sources.length < n) {
+			double scale = (double) n / sources.length;
+			for (int i = 0; i < n; i++) {
+				scores[i] *= scale;
+			}
+		}
+		return scores;
+	}
+
+	/**
+	 * List the vertices with the highest scores.
+	 * @param scores The scores, as returned by compute.
+	 * @param k The number of vertices to list.
+	 * @return Up to k vertices, highest score first.
+	 */
+	public static List<Integer> top(double[] scores, int k)
+	{
+		int n = scores.length;
+		List<Integer> order = new ArrayList<Integer>(n);
+		for (int i = 0; i < n; i++) {
+			order.add(i);
+		}
+		Collections.sort(order, (a, b) -> Double.compare(scores[b], scores[a]));
+		return order.subList(0, Math.min(k, n));
+	}
+
+	// k distinct sources chosen at random, by a partial Fisher-Yates shuffle
+	private static int[] sample(int n, int k, long seed)
+	{
+		int[] all = new int[n];
+		for (int i = 0; i < n; i++) {
+			all[i] = i;
+		}
+		Random random = new Random(seed);
+		for (int i = 0; i < k; i++) {
+			int j = i + random.nextInt(n - i);
+			int t = all[i];
+			all[i] = all[j];
+			all[j] = t;
+		}
+		return Arrays.copyOf(all, k);
+	}
+
+	/**
+	 * Searches from a range of sources, splitting the range while it is
+	 * longer than the chunk.  Each leaf keeps its own search arrays and
+	 * scores, so the threads share nothing but the graph.
+	 */
+	private class SourceTask extends RecursiveTask<double[]>
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final int[] sources;
+		private final int from;
+		private final int to;
+		private final int chunk;
+
+		SourceTask(int[] sources, int from, int to, int chunk)
+		{
+			this.sources = sources;
+			this.from = from;
+			this.to = to;
+			this.chunk = chunk;
+		}
+
+		protected double[] compute()
+		{
+			if (to - from > chunk) {
+				int mid = (from + to) >>> 1;
+				SourceTask left = new SourceTask(sources, from, mid, chunk);
+				left.fork();
+				double[] right = new SourceTask(sources, mid, to, chunk).compute();
+				double[] scores = left.join();
+				for (int i = 0; i < n; i++) {
+					scores[i] += right[i];
+				}
+				return scores;
+			}
+			Workspace workspace = new Workspace();
+			for (int s = from; s < to; s++) {
+				workspace.accumulate(sources[s]);
+			}
+			return workspace.scores;
+		}
+	}
+
+	/**
+	 * The arrays of one single-source search and the scores it adds to.
+	 */
+	private class Workspace
+	{
+		final double[] scores = new double[n];
+		final double[] dist = new double[n];
+		// The number of shortest paths from the source to each vertex
+		final double[] sigma = new double[n];
+		final double[] delta = new double[n];
+		// The vertices in the order they were settled
+		final int[] order = new int[n];
+		final int[] queue = new int[n];
+		final boolean[] done = new boolean[n];
+		final HeapQueue heap = new HeapQueue();
+
+		void accumulate(int source)
+		{
+			Arrays.fill(dist, Double.POSITIVE_INFINITY);
+			Arrays.fill(sigma, 0);
+			dist[source] = 0;
+			sigma[source] = 1;
+			int settled = edgeLength == null ? bfs(source) : dijkstra(source);
+
+			// Walk back from the farthest vertex: the dependency of v is
+			// the sum over its successors w on shortest paths of
+			// sigma[v] / sigma[w] * (1 + delta[w]).
+			for (int i = settled - 1; i >= 0; i--) {
+				int v = order[i];
+				double d = 0;
+				for (int e = edgeStart[v]; e < edgeStart[v + 1]; e++) {
+					int w = edgeTarget[e];
+					if (dist[w] == dist[v] + length(e) && sigma[w] > 0) {
+						d += sigma[v] / sigma[w] * (1 + delta[w]);
+					}
+				}
+				delta[v] = d;
+				if (v != source) {
+					scores[v] += d;
+				}
+			}
+		}
+
+		private double length(int e)
+		{
+			return edgeLength == null ? 1 : edgeLength[e];
+		}
+
+		private int bfs(int source)
+		{
+			int head = 0;
+			int tail = 0;
+			queue[tail++] = source;
+			while (head < tail) {
+				int v = queue[head];
+				order[head++] = v;
+				for (int e = edgeStart[v]; e < edgeStart[v + 1]; e++) {
+					int w = edgeTarget[e];
+					if (dist[w] == Double.POSITIVE_INFINITY) {
+						dist[w] = dist[v] + 1;
+						queue[tail++] = w;
+					}
+					if (dist[w] == dist[v] + 1) {
+						sigma[w] += sigma[v];
+					}
+				}
+			}
+			return tail;
+		}
+
+		private int dijkstra(int source)
+		{
+			Arrays.fill(done, false);
+			int settled = 0;
+			heap.clear();
+			heap.push(0, source);
+			while (heap.size > 0) {
+				int v = heap.pop();
+				if (done[v]) {
+					continue;
+				}
+				done[v] = true;
+				order[settled++] = v;
+				for (int e = edgeStart[v]; e < edgeStart[v + 1]; e++) {
+					int w = edgeTarget[e];
+					double d = dist[v] + edgeLength[e];
+					if (d < dist[w]) {
+						dist[w] = d;
+						sigma[w] = sigma[v];
+						heap.push(d, w);
+					}
+					else if (d == dist[w] && !done[w]) {
+						sigma[w] += sigma[v];
+					}
+				}
+			}
+			return settled;
+		}
+	}
+
+	/**
+	 * A binary min-heap of (distance, vertex) in parallel arrays.
+	 */
+	private static class HeapQueue
+	{
+		double[] keys = new double[64];
+		int[] values = new int[64];
+		int size;
+
+		void clear()
+		{
+			size = 0;
+		}
+
+		void push(double key, int value)
+		{
+			if (size == keys.length) {
+				keys = Arrays.copyOf(keys, size * 2);
+				values = Arrays.copyOf(values, size * 2);
+			}
+			int i = size++;
+			while (i > 0) {
+				int parent = (i - 1) / 2;
+				if (keys[parent] <= key) {
+					break;
+				}
+				keys[i] = keys[parent];
+				values[i] = values[parent];
+				i = parent;
+			}
+			keys[i] = key;
+			values[i] = value;
+		}
+
+		int pop()
+		{
+			int top = values[0];
+			size--;
+			double key = keys[size];
+			int value = values[size];
+			int i = 0;
+			while (true) {
+				int child = 2 * i + 1;
+				if (child >= size) {
+					break;
+				}
+				if (child + 1 < size && keys[child + 1] < keys[child]) {
+					child++;
+				}
+				if (keys[child] >= key) {
+					break;
+				}
+				keys[i] = keys[child];
+				values[i] = values[child];
+				i = child;
+			}
+			keys[i] = key;
+			values[i] = value;
+			return top;
+		}
+	}
+
+	public static void main(String[] args)
+	{
+		if (args.length < 2) {
+			System.out.println("Usage: Betweenness (-map FILE | -routes FILE) [top [samples]]");
+			return;
+		}
+		Betweenness engine;
+		if (args[0].equals("-map")) {
+			MapGraph graph = new MapGraph();
+			GraphLoader.loadRoadMap(args[1], graph);
+			engine = of(graph);
+		}
+		else {
+			GraphAdjList graph = new GraphAdjList();
+			GraphLoader.loadRoutes(args[1], graph);
+			engine = of(graph);
+		}
+		int top = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+		if (args.length > 3) {
+			engine.setSampling(Integer.parseInt(args[3]), 1);
+		}
+		double[] scores = engine.compute();
+		for (int v : top(scores, top)) {
+			System.out.println(engine.getLabel(v) + "\t" + scores[v]);
+		}
+	}
+}
@@ -0,0 +1,361 @@
+/**
+ * A directory of prebuilt road graphs, keyed by the content of the .map
+ * file they were built from.
+ *
+ * The first load of a map file runs RoadMapPipeline as usual and records
+ * the intersections and edges it produces in a binary cache file named
+ * after a SHA-256 hash of the map file and LOADER_VERSION.  Later loads
+ * of the same content replay the cache file into the sinks instead of
+ * parsing the map again.  A cache file is checked (header, hash and a
+ * CRC32 of its body) before any sink sees it; a file which fails the
+ * check is rebuilt.
+ *
+ * Cache file layout, all big endian:
+ * int magic, int version, 32 byte map hash,
+ * int numPoints, numPoints * (double lat, double lon),
+ * int numStrings, numStrings * UTF string,
+ * int numIntersections, numIntersections * int point,
+ * int numEdges, numEdges * (int from, int to, int name, int type,
+ *   double length, int numGeometry, numGeometry * int point),
+ * long crc32 of everything from numPoints on.
+ */
+package util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import geography.GeographicPoint;
+
+public class GraphCache
+{
+	/**
+	 * Bump this whenever the graphs built by RoadMapPipeline change, so
+	 * that cache files written by an older loader are not reused.
+	 */
+	public static final int LOADER_VERSION = 1;
+
+	private static final int MAGIC = 0x52474331;
+
+	private File directory;
+
+	/**
+	 * @param directory The directory holding the cache files.  It is
+	 *   created when the first cache file is written.
+	 */
+	public GraphCache(String directory)
+	{
+		this.directory = new File(directory);
+	}
+
+	/**
+	 * Load a map file into the given sinks, from the cache if it holds a
+	 * graph built from the same file content, and otherwise by parsing
+	 * the file and adding the result to the cache.
+	 * @param filename The file containing the road data.
+	 * @param sinks The sinks receiving the intersections and edges.
+	 * @return true if the graph was read from the cache.
+	 */
+	public boolean load(String filename, RoadMapSink... sinks)
+	{
+		byte[] hash;
+		try {
+			hash = hashFile(filename);
+		} catch (IOException e) {
+			System.err.println("Problem hashing map file: " + filename);
+			e.printStackTrace();
+			RoadMapPipeline.load(filename, sinks);
+			return false;
+		}
+
+		File cacheFile = new File(directory, toHex(hash) + ".graph");
+		if (cacheFile.isFile()) {
+			byte[] body = readValidated(cacheFile, hash);
+			if (body != null) {
+				replay(body, sinks);
+				return true;
+			}
+			System.err.println("Rebuilding stale graph cache: " + cacheFile);
+		}
+
+		RoadMapSink[] all = Arrays.copyOf(sinks, sinks.length + 1);
+		all[sinks.length] = new CacheWriter(cacheFile, hash);
+		RoadMapPipeline.load(filename, all);
+		return false;
+	}
+
+	// The key of a map file: the hash of the loader version and the content.
+	private static byte[] hashFile(String filename) throws IOException
+	{
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+		digest.update(ByteBuffer.allocate(4).putInt(LOADER_VERSION).array());
+		byte[] buffer = new byte[1 << 16];
+		try (InputStream in = new FileInputStream(filename)) {
+			int n;
+			while ((n = in.read(buffer)) > 0) {
+				digest.update(buffer, 0, n);
+			}
+		}
+		return digest.digest();
+	}
+
+	private static String toHex(byte[] bytes)
+	{
+		StringBuilder sb = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+			sb.append(Character.forDigit(b & 0xF, 16));
+		}
+		return sb.toString();
+	}
+
+	// Read a cache file and return its body, or null if the header does
+	// not match or the body does not match its checksum.
+	private static byte[] readValidated(File cacheFile, byte[] hash)
+	{
+		byte[] data;
+		try {
+			data = Files.readAllBytes(cacheFile.toPath());
+		} catch (IOException e) {
+			return null;
+		}
+		int headerLength = 8 + hash.length;
+		if (data.length < headerLength + 8) {
+			return null;
+		}
+		try {
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+			if (in.readInt() != MAGIC || in.readInt() != LOADER_VERSION) {
+				return null;
+			}
+			byte[] storedHash = new byte[hash.length];
+			in.readFully(storedHash);
+			if (!Arrays.equals(storedHash, hash)) {
+				return null;
+			}
+		} catch (IOException e) {
+			return null;
+		}
+
+		int bodyLength = data.length - headerLength - 8;
+		CRC32 crc = new CRC32();
+		crc.update(data, headerLength, bodyLength);
+		long stored = 0;
+		for (int i = data.length - 8; i < data.length; i++) {
+			stored = (stored << 8) | (data[i] & 0xFF);
+		}
+		if (stored != crc.getValue()) {
+			return null;
+		}
+		return Arrays.copyOfRange(data, headerLength, headerLength + bodyLength);
+	}
+
+	// Feed a validated body to the sinks in the order RoadMapPipeline would.
+	private static void replay(byte[] body, RoadMapSink[] sinks)
+	{
+		try {
+			replay(new DataInputStream(new ByteArrayInputStream(body)), sinks);
+		} catch (IOException e) {
+			// The body passed its checksum, so it was written by CacheWriter
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static void replay(DataInputStream in, RoadMapSink[] sinks) throws IOException
+	{
+		GeographicPoint[] points = new GeographicPoint[in.readInt()];
+		for (int i = 0; i < points.length; i++) {
+			points[i] = new GeographicPoint(in.readDouble(), in.readDouble());
+		}
+		String[] strings = new String[in.readInt()];
+		for (int i = 0; i < strings.length; i++) {
+			strings[i] = in.readUTF();
+		}
+
+		int numIntersections = in.readInt();
+		for (int i = 0; i < numIntersections; i++) {
+			GeographicPoint pt = points[in.readInt()];
+			for (RoadMapSink sink : sinks) {
+				sink.addIntersection(pt);
+			}
+		}
+
+		int numEdges = in.readInt();
+		for (int i = 0; i < numEdges; i++) {
+			GeographicPoint from = points[in.readInt()];
+			GeographicPoint to = points[in.readInt()];
+			String roadName = strings[in.readInt()];
+			String roadType = strings[in.readInt()];
+			double length = in.readDouble();
+			int numGeometry = in.readInt();
+			List<GeographicPoint> geometry = new ArrayList<GeographicPoint>(numGeometry);
+			for (int j = 0; j < numGeometry; j++) {
+				geometry.add(points[in.readInt()]);
+			}
+			geometry = Collections.unmodifiableList(geometry);
+			for (RoadMapSink sink : sinks) {
+				sink.addEdge(from, to, roadName, roadType, length, geometry);
+			}
+		}
+
+		for (RoadMapSink sink : sinks) {
+			sink.finish();
+		}
+	}
+
+
+	/**
+	 * Records the output of the pipeline and writes it as a cache file
+	 * when the pipeline finishes.  The file is written under a temporary
+	 * name and moved into place, so readers never see a partial file.
+	 */
+	private static class CacheWriter implements RoadMapSink
+	{
+		private File cacheFile;
+		private byte[] hash;
+
+		private HashMap<GeographicPoint, Integer> pointIds =
+				new HashMap<GeographicPoint, Integer>();
+		private List<GeographicPoint> points = new ArrayList<GeographicPoint>();
+		private HashMap<String, Integer> stringIds = new HashMap<String, Integer>();
+		private List<String> strings = new ArrayList<String>();
+		private List<Integer> intersections = new ArrayList<Integer>();
+
+		private int numEdges;
+		private ByteArrayOutputStream edgeBytes = new ByteArrayOutputStream();
+		private DataOutputStream edges = new DataOutputStream(edgeBytes);
+
+		CacheWriter(File cacheFile, byte[] hash)
+		{
+			this.cacheFile = cacheFile;
+			this.hash = hash;
+		}
+
+		public void addIntersection(GeographicPoint pt)
+		{
+			intersections.add(pointId(pt));
+		}
+
+		public void addEdge(GeographicPoint from, GeographicPoint to, String roadName,
+				String roadType, double length, List<GeographicPoint> geometry)
+		{
+			try {
+				edges.writeInt(pointId(from));
+				edges.writeInt(pointId(to));
+				edges.writeInt(stringId(roadName));
+				edges.writeInt(stringId(roadType));
+				edges.writeDouble(length);
+				edges.writeInt(geometry.size());
+				for (GeographicPoint pt : geometry) {
+					edges.writeInt(pointId(pt));
+				}
+			} catch (IOException e) {
+				// Writing to a byte array cannot fail
+				throw new IllegalStateException(e);
+			}
+			numEdges++;
+		}
+
+		public void finish()
+		{
+			File tempFile = null;
+			try {
+				ByteArrayOutputStream bodyBytes = new ByteArrayOutputStream(edgeBytes.size() * 2);
+				DataOutputStream body = new DataOutputStream(bodyBytes);
+				body.writeInt(points.size());
+				for (GeographicPoint pt : points) {
+					body.writeDouble(pt.getX());
+					body.writeDouble(pt.getY());
+				}
+				body.writeInt(strings.size());
+				for (String s : strings) {
+					body.writeUTF(s);
+				}
+				body.writeInt(intersections.size());
+				for (int id : intersections) {
+					body.writeInt(id);
+				}
+				body.writeInt(numEdges);
+				edges.flush();
+				edgeBytes.writeTo(body);
+				body.flush();
+
+				byte[] bytes = bodyBytes.toByteArray();
+				CRC32 crc = new CRC32();
+				crc.update(bytes, 0, bytes.length);
+
+				if (!directory().isDirectory() && !directory().mkdirs()) {
+					throw new IOException("Cannot create cache directory " + directory());
+				}
+				tempFile = File.createTempFile("graph", ".tmp", directory());
+				try (OutputStream fileOut = new FileOutputStream(tempFile)) {
+					DataOutputStream out = new DataOutputStream(fileOut);
+					out.writeInt(MAGIC);
+					out.writeInt(LOADER_VERSION);
+					out.write(hash);
+					out.write(bytes);
+					out.writeLong(crc.getValue());
+					out.flush();
+				}
+				Files.move(tempFile.toPath(), cacheFile.toPath(),
+						StandardCopyOption.REPLACE_EXISTING);
+			} catch (IOException e) {
+				System.err.println("Problem writing graph cache: " + cacheFile);
+				e.printStackTrace();
+				if (tempFile != null) {
+					tempFile.delete();
+				}
+			}
+		}
+
+		private File directory()
+		{
+			return cacheFile.getParentFile();
+		}
+
+		private int pointId(GeographicPoint pt)
+		{
+			Integer id = pointIds.get(pt);
+			if (id == null) {
+				id = points.size();
+				pointIds.put(pt, id);
+				points.add(pt);
+			}
+			return id;
+		}
+
+		private int stringId(String s)
+		{
+			Integer id = stringIds.get(s);
+			if (id == null) {
+				id = strings.size();
+				stringIds.put(s, id);
+				strings.add(s);
+			}
+			return id;
+		}
+	}
+}
@@ -0,0 +1,116 @@
+/**
+ * A RoadMapSink that writes an intersections file: one line with the
+ * two end points of every edge.
+ *
+ * Lines are formatted straight into a byte buffer which is written to the
+ * file when full, so writing a file allocates no Strings per edge.  The
+ * output is byte for byte what GeographicPoint.toString produces.
+ */
+package util;
+
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.List;
+
+import geography.GeographicPoint;
+
+public class IntersectionsFileSink implements RoadMapSink, Closeable
+{
+	private static final byte[] LAT = "Lat: ".getBytes();
+	private static final byte[] LON = ", Lon: ".getBytes();
+	private static final byte[] NEWLINE = System.lineSeparator().getBytes();
+
+	private OutputStream out;
+	private byte[] buffer = new byte[1 << 16];
+	private int count;
+
+	// Scratch space for formatting one coordinate
+	private StringBuilder number = new StringBuilder(32);
+
+	/**
+	 * @param intersectionsFile The output file containing the intersections.
+	 */
+	public IntersectionsFileSink(String intersectionsFile) throws FileNotFoundException
+	{
+		out = new FileOutputStream(intersectionsFile);
+	}
+
+	public void addIntersection(GeographicPoint pt)
+	{
+	}
+
+	public void addEdge(GeographicPoint from, GeographicPoint to, String roadName,
+			String roadType, double length, List<GeographicPoint> geometry)
+	{
+		// Two points of at most 2 * 24 characters plus the labels
+		if (count + 128 > buffer.length) {
+			flushBuffer();
+		}
+		writePoint(from);
+		buffer[count++] = ' ';
+		writePoint(to);
+		write(NEWLINE);
+	}
+
+	public void finish()
+	{
+		try {
+			flushBuffer();
+		}
+		finally {
+			try {
+				close();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+
+	/**
+	 * Close the file without writing the buffered lines, as when the map
+	 * could not be loaded.  Closing a finished sink does nothing.
+	 */
+	public void close() throws IOException
+	{
+		out.close();
+	}
+
+	private void writePoint(GeographicPoint pt)
+	{
+		write(LAT);
+		writeDouble(pt.getX());
+		write(LON);
+		writeDouble(pt.getY());
+	}
+
+	// StringBuilder.append(double) formats with the same digits as
+	// Double.toString without creating a String.
+	private void writeDouble(double value)
+	{
+		number.setLength(0);
+		number.append(value);
+		for (int i = 0; i < number.length(); i++) {
+			buffer[count++] = (byte) number.charAt(i);
+		}
+	}
+
+	private void write(byte[] bytes)
+	{
+		System.arraycopy(bytes, 0, buffer, count, bytes.length);
+		count += bytes.length;
+	}
+
+	private void flushBuffer()
+	{
+		try {
+			out.write(buffer, 0, count);
+			count = 0;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+}
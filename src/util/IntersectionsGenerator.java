@@ -0,0 +1,127 @@
+/**
+ * Generates the .intersections file of every map listed in a map list
+ * file (by default data/maps/mapfiles.list), one map per worker thread.
+ *
+ * Each entry of the list is a .map file name relative to the directory
+ * of the list.  The intersections file of map NAME.map is written to
+ * the output directory as NAME.intersections; it is written under a
+ * temporary name first, so an interrupted run or a map which cannot be
+ * read to the end never leaves a truncated file behind.
+ *
+ * Usage: IntersectionsGenerator [mapList [outputDir [threads]]]
+ */
+package util;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class IntersectionsGenerator
+{
+	public static final String DEFAULT_MAP_LIST = "data/maps/mapfiles.list";
+	public static final String DEFAULT_OUTPUT_DIR = "data/intersections";
+
+	/**
+	 * Generate the intersections files of every map in the list.
+	 * @param mapList The file listing the .map files, one per line.
+	 * @param outputDir The directory to write the intersections files to.
+	 * @param threads The number of maps to process at the same time.
+	 * @return The number of maps which could not be processed.
+	 */
+	public static int generate(String mapList, String outputDir, int threads)
+			throws IOException
+	{
+		File mapDir = new File(mapList).getAbsoluteFile().getParentFile();
+		File outDir = new File(outputDir);
+		if (!outDir.isDirectory() && !outDir.mkdirs()) {
+			throw new IOException("Cannot create output directory " + outDir);
+		}
+
+		List<String> maps = new ArrayList<String>();
+		try (BufferedReader reader = new BufferedReader(new FileReader(mapList))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (!line.isEmpty()) {
+					maps.add(line);
+				}
+			}
+		}
+
+		ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+		List<Future<?>> results = new ArrayList<Future<?>>();
+		for (String map : maps) {
+			File mapFile = new File(mapDir, map);
+			String name = mapFile.getName();
+			if (name.endsWith(".map")) {
+				name = name.substring(0, name.length() - ".map".length());
+			}
+			File intersectionsFile = new File(outDir, name + ".intersections");
+			results.add(pool.submit(() -> {
+				generate(mapFile, intersectionsFile);
+				return null;
+			}));
+		}
+		pool.shutdown();
+
+		int failed = 0;
+		for (int i = 0; i < maps.size(); i++) {
+			try {
+				results.get(i).get();
+			} catch (ExecutionException e) {
+				System.err.println("Problem generating intersections for " + maps.get(i));
+				e.getCause().printStackTrace();
+				failed++;
+			} catch (InterruptedException e) {
+				pool.shutdownNow();
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted", e);
+			}
+		}
+		return failed;
+	}
+
+	private static void generate(File mapFile, File intersectionsFile) throws IOException
+	{
+		if (!mapFile.isFile()) {
+			throw new IOException("Map file not found: " + mapFile);
+		}
+		RoadTopology topology = RoadTopology.parse(mapFile.getPath());
+		File tempFile = new File(intersectionsFile.getPath() + ".tmp");
+		try {
+			try (IntersectionsFileSink sink = new IntersectionsFileSink(tempFile.getPath())) {
+				RoadMapPipeline.run(topology, sink);
+			}
+			Files.move(tempFile.toPath(), intersectionsFile.toPath(),
+					StandardCopyOption.REPLACE_EXISTING);
+		}
+		finally {
+			tempFile.delete();
+		}
+	}
+
+	public static void main(String[] args) throws IOException
+	{
+		String mapList = args.length > 0 ? args[0] : DEFAULT_MAP_LIST;
+		String outputDir = args.length > 1 ? args[1] : DEFAULT_OUTPUT_DIR;
+		int threads = args.length > 2 ? Integer.parseInt(args[2])
+				: Runtime.getRuntime().availableProcessors();
+
+		long start = System.currentTimeMillis();
+		int failed = generate(mapList, outputDir, threads);
+		System.out.println("Generated intersections for " + mapList + " in "
+				+ (System.currentTimeMillis() - start) + " ms, " + failed + " failed");
+		if (failed > 0) {
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,149 @@
+/**
+ * A set of edits to a .map file.  The delta file contains data lines
+ * as follows:
+ * + lat1 lon1 lat2 lon2 roadName roadType
+ * - lat1 lon1 lat2 lon2 roadName roadType
+ *
+ * where "+" adds a one way road segment and "-" removes one.  Blank
+ * lines and lines starting with # are ignored.  A road closure removes
+ * both directions of its segments; making a road one way removes only
+ * the segments of the direction which is no longer allowed.
+ */
+package util;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import geography.GeographicPoint;
+
+public class MapDelta
+{
+	private List<Segment> added;
+	private List<Segment> removed;
+
+	/**
+	 * Create a new empty delta
+	 */
+	public MapDelta()
+	{
+		added = new ArrayList<Segment>();
+		removed = new ArrayList<Segment>();
+	}
+
+	/**
+	 * Read a delta file.
+	 * @param filename The file containing the delta, in the format described.
+	 * @return The delta read from the file.
+	 * @throws IOException If the file cannot be read or any line of it is
+	 * malformed, so that no part of a bad delta is applied.
+	 */
+	public static MapDelta load(String filename) throws IOException
+	{
+		MapDelta delta = new MapDelta();
+		try (BufferedReader reader = new BufferedReader(new FileReader(filename))) {
+			String nextLine;
+			int lineNumber = 0;
+			while ((nextLine = reader.readLine()) != null) {
+				lineNumber++;
+				String line = nextLine.trim();
+				if (line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+				final List<Segment> target;
+				if (line.charAt(0) == '+') {
+					target = delta.added;
+				}
+				else if (line.charAt(0) == '-') {
+					target = delta.removed;
+				}
+				else {
+					throw new IOException(filename + ":" + lineNumber
+							+ ": delta line must start with + or -: " + line);
+				}
+				try {
+					MapFileReader.parseLine(line.substring(1),
+							(lat1, lon1, lat2, lon2, roadName, roadType) ->
+							target.add(new Segment(new GeographicPoint(lat1, lon1),
+									new GeographicPoint(lat2, lon2), roadName, roadType)));
+				} catch (IllegalArgumentException e) {
+					throw new IOException(filename + ":" + lineNumber + ": " + e.getMessage(), e);
+				}
+			}
+		}
+		return delta;
+	}
+
+	/** @param segment A segment to add to the map. */
+	public void addSegment(Segment segment) { added.add(segment); }
+
+	/** @param segment A segment to remove from the map. */
+	public void removeSegment(Segment segment) { removed.add(segment); }
+
+	/** @return The segments added by this delta. */
+	public List<Segment> getAdded() { return added; }
+
+	/** @return The segments removed by this delta. */
+	public List<Segment> getRemoved() { return removed; }
+
+
+	/**
+	 * One raw, one way segment of a road, as found on a line of a .map file.
+	 */
+	public static class Segment
+	{
+		final GeographicPoint from;
+		final GeographicPoint to;
+		final String roadName;
+		final String roadType;
+
+		public Segment(GeographicPoint from, GeographicPoint to, String roadName,
+				String roadType)
+		{
+			this.from = from;
+			this.to = to;
+			this.roadName = roadName;
+			this.roadType = roadType;
+		}
+
+		public GeographicPoint getFrom() { return from; }
+
+		public GeographicPoint getTo() { return to; }
+
+		public String getRoadName() { return roadName; }
+
+		public String getRoadType() { return roadType; }
+
+		/** Return true if this segment is other, but in reverse */
+		boolean isReverse(Segment other)
+		{
+			return from.equals(other.to) && to.equals(other.from) &&
+					roadName.equals(other.roadName) && roadType.equals(other.roadType);
+		}
+
+		/** Two segments are equal if they have the same points in the same
+		 * order and the same roadName and roadType.
+		 */
+		public boolean equals(Object o)
+		{
+			if (!(o instanceof Segment)) {
+				return false;
+			}
+			Segment other = (Segment)o;
+			return from.equals(other.from) && to.equals(other.to) &&
+					roadName.equals(other.roadName) && roadType.equals(other.roadType);
+		}
+
+		public int hashCode()
+		{
+			return from.hashCode() * 31 + to.hashCode();
+		}
+
+		public String toString()
+		{
+			return from + " " + to + " " + roadName + " " + roadType;
+		}
+	}
+}
@@ -0,0 +1,428 @@
+/**
+ * Applies MapDeltas to a road graph that has already been loaded, without
+ * reloading the .map file.
+ *
+ * The applier keeps the raw segments of the map indexed by point, with
+ * the ids of the RoadTopology it was made from, and decides which points
+ * are intersections and traces the chains between them with the rules of
+ * RoadTopology.  For each delta it finds the intersections whose collapsed
+ * edges run through one of the edited points, both before and after the
+ * edit, and retraces only the edges leaving those intersections.  Points
+ * that become intersections split the chains running through them; points
+ * that stop being intersections merge the chains on either side.
+ */
+package util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import geography.GeographicPoint;
+import geography.RoadSegment;
+import roadgraph.MapGraph;
+import roadgraph.MapNodeEdge;
+import util.MapDelta.Segment;
+
+public class MapDeltaApplier
+{
+	private MapGraph map;
+	private HashMap<GeographicPoint,HashSet<RoadSegment>> segments;
+	private RoadMapSink[] sinks;
+
+	private SegmentTable table;
+	private int[] interior = new int[16];
+
+	/**
+	 * Create an applier for a graph loaded from the given topology.
+	 * @param topology The topology of the .map file the graph was loaded from.
+	 * @param map The graph built from the topology.
+	 * @param segments The road segments built from the topology, or null
+	 *   if the geometry was not loaded.
+	 */
+	public MapDeltaApplier(RoadTopology topology, MapGraph map,
+			HashMap<GeographicPoint,HashSet<RoadSegment>> segments)
+	{
+		this.map = map;
+		this.segments = segments;
+		if (segments != null) {
+			sinks = new RoadMapSink[] { new MapGraphSink(map), new RoadSegmentSink(segments) };
+		}
+		else {
+			sinks = new RoadMapSink[] { new MapGraphSink(map) };
+		}
+		table = new SegmentTable(topology);
+	}
+
+	/**
+	 * Apply a delta to the graph and road segments.
+	 * Cached routes through the changed intersections are dropped.  When the
+	 * delta adds segments every cached route is dropped, since a new road
+	 * can shorten routes which never touch it.
+	 * @param delta The segments to add and remove.
+	 * @return The intersections whose outgoing edges were rebuilt.
+	 */
+	public Set<GeographicPoint> apply(MapDelta delta)
+	{
+		BitSet touched = new BitSet();
+		for (Segment seg : delta.getRemoved()) {
+			touched.set(table.pointId(seg.from));
+			touched.set(table.pointId(seg.to));
+		}
+		for (Segment seg : delta.getAdded()) {
+			touched.set(table.pointId(seg.from));
+			touched.set(table.pointId(seg.to));
+		}
+
+		// Edges through the edited points before the edit...
+		BitSet affected = new BitSet();
+		collectChainStarts(touched, affected);
+
+		for (Segment seg : delta.getRemoved()) {
+			if (!table.removeSegment(seg)) {
+				System.out.println("Delta removes a segment not in the map: " + seg);
+			}
+		}
+		for (Segment seg : delta.getAdded()) {
+			table.addSegment(seg);
+		}
+
+		BitSet demoted = new BitSet();
+		BitSet promoted = new BitSet();
+		for (int p = touched.nextSetBit(0); p >= 0; p = touched.nextSetBit(p + 1)) {
+			boolean isNode = RoadTopology.computeIsIntersection(table, p);
+			if (isNode != table.isIntersection(p)) {
+				table.intersection.set(p, isNode);
+				(isNode ? promoted : demoted).set(p);
+			}
+		}
+
+		// ...and after it.
+		collectChainStarts(touched, affected);
+
+		for (int p = affected.nextSetBit(0); p >= 0; p = affected.nextSetBit(p + 1)) {
+			removeEdges(p, affected);
+		}
+		for (int p = demoted.nextSetBit(0); p >= 0; p = demoted.nextSetBit(p + 1)) {
+			map.removeVertex(table.points[p]);
+			if (segments != null) {
+				segments.remove(table.points[p]);
+			}
+		}
+		for (int p = promoted.nextSetBit(0); p >= 0; p = promoted.nextSetBit(p + 1)) {
+			map.addVertex(table.points[p]);
+		}
+		for (int p = affected.nextSetBit(0); p >= 0; p = affected.nextSetBit(p + 1)) {
+			if (table.isIntersection(p)) {
+				traceEdges(p);
+			}
+		}
+
+		Set<GeographicPoint> rebuilt = table.toPoints(affected);
+		if (delta.getAdded().isEmpty()) {
+			Set<GeographicPoint> changed = new HashSet<GeographicPoint>(rebuilt);
+			changed.addAll(table.toPoints(demoted));
+			map.invalidateRoutesThrough(changed);
+		}
+		else {
+			map.clearRouteCache();
+		}
+		return rebuilt;
+	}
+
+	// Walk backwards from each point along the chains running through it
+	// and collect the intersections those chains start from.
+	private void collectChainStarts(BitSet points, BitSet starts)
+	{
+		BitSet visited = (BitSet) points.clone();
+		int[] toVisit = new int[Math.max(16, points.cardinality())];
+		int size = 0;
+		for (int p = points.nextSetBit(0); p >= 0; p = points.nextSetBit(p + 1)) {
+			if (table.isIntersection(p)) {
+				starts.set(p);
+			}
+			toVisit[size++] = p;
+		}
+		while (size > 0) {
+			int pt = toVisit[--size];
+			for (int i = 0; i < table.getInDegree(pt); i++) {
+				int from = table.getFrom(table.getIn(pt, i));
+				if (table.isIntersection(from)) {
+					starts.set(from);
+				}
+				else if (!visited.get(from)) {
+					visited.set(from);
+					if (size == toVisit.length) {
+						toVisit = Arrays.copyOf(toVisit, size * 2);
+					}
+					toVisit[size++] = from;
+				}
+			}
+		}
+	}
+
+	// Remove the edges leaving start from the graph, along with their road
+	// segments.  A road segment is shared by the two directions of a road, so
+	// it is kept when the reverse edge is not being rebuilt.
+	private void removeEdges(int startId, BitSet affected)
+	{
+		GeographicPoint start = table.points[startId];
+		if (segments != null) {
+			for (MapNodeEdge edge : map.getEdges(start)) {
+				GeographicPoint end = edge.getEnd();
+				Integer endId = table.pointIds.get(end);
+				if ((endId == null || !affected.get(endId)) && hasReverse(edge)) {
+					continue;
+				}
+				HashSet<RoadSegment> segs = segments.get(start);
+				RoadSegment seg = segs == null ? null : RoadSegment.find(segs, start, end,
+						edge.getStreetName(), edge.getRoadType(), edge.getLength());
+				if (seg != null) {
+					removeRoadSegment(start, seg);
+					removeRoadSegment(end, seg);
+				}
+			}
+		}
+		map.removeEdges(start);
+	}
+
+	// Whether the graph has the same road driven the other way, sharing the
+	// road segment.  The two carriageways of a divided road have the same
+	// ends, name and type but their own geometry, so the lengths must agree.
+	private boolean hasReverse(MapNodeEdge like)
+	{
+		for (MapNodeEdge edge : map.getEdges(like.getEnd())) {
+			if (edge.getEnd().equals(like.getStart())
+					&& edge.getStreetName().equals(like.getStreetName())
+					&& edge.getRoadType().equals(like.getRoadType())
+					&& RoadSegment.sameLength(edge.getLength(), like.getLength())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void removeRoadSegment(GeographicPoint pt, RoadSegment seg)
+	{
+		HashSet<RoadSegment> segs = segments.get(pt);
+		if (segs != null) {
+			segs.remove(seg);
+			if (segs.isEmpty()) {
+				segments.remove(pt);
+			}
+		}
+	}
+
+	// Trace each raw segment leaving start to the next intersection and add
+	// the collapsed edge, as RoadMapPipeline does when loading the map.
+	private void traceEdges(int startId)
+	{
+		GeographicPoint start = table.points[startId];
+		interior = RoadTopology.traceEdgesFrom(table, startId, interior,
+				(first, endId, points, count) -> {
+			GeographicPoint end = table.points[endId];
+			List<GeographicPoint> pointsOnEdge = new ArrayList<GeographicPoint>(count);
+			for (int i = 0; i < count; i++) {
+				pointsOnEdge.add(table.points[points[i]]);
+			}
+			pointsOnEdge = Collections.unmodifiableList(pointsOnEdge);
+			double length = RoadMapPipeline.getRoadLength(start, end, pointsOnEdge);
+			String roadName = table.strings[table.segName[first]];
+			String roadType = table.strings[table.segType[first]];
+			for (RoadMapSink sink : sinks) {
+				sink.addEdge(start, end, roadName, roadType, length, pointsOnEdge);
+			}
+		});
+	}
+
+	/**
+	 * The raw segments as they are edited, numbered like the RoadTopology
+	 * they start from.  Segment ids are not reused; a removed segment is
+	 * only taken out of the lists of its points.
+	 */
+	private static class SegmentTable implements RawSegments
+	{
+		HashMap<GeographicPoint,Integer> pointIds = new HashMap<GeographicPoint,Integer>();
+		GeographicPoint[] points;
+		int numPoints;
+		HashMap<String,Integer> stringIds = new HashMap<String,Integer>();
+		String[] strings = new String[16];
+		int numStrings;
+
+		int[] segFrom;
+		int[] segTo;
+		int[] segName;
+		int[] segType;
+		int numSegments;
+
+		// The segments leaving and entering each point, in file order
+		int[][] outSegs;
+		int[] outCount;
+		int[][] inSegs;
+		int[] inCount;
+
+		BitSet intersection = new BitSet();
+
+		SegmentTable(RoadTopology topology)
+		{
+			numPoints = topology.getNumPoints();
+			int capacity = Math.max(16, numPoints);
+			points = new GeographicPoint[capacity];
+			outSegs = new int[capacity][];
+			outCount = new int[capacity];
+			inSegs = new int[capacity][];
+			inCount = new int[capacity];
+			for (int p = 0; p < numPoints; p++) {
+				points[p] = topology.getPoint(p);
+				pointIds.put(points[p], p);
+				outSegs[p] = new int[Math.max(2, topology.getOutDegree(p))];
+				inSegs[p] = new int[Math.max(2, topology.getInDegree(p))];
+				if (topology.isIntersection(p)) {
+					intersection.set(p);
+				}
+			}
+
+			int segments = Math.max(16, topology.getNumSegments());
+			segFrom = new int[segments];
+			segTo = new int[segments];
+			segName = new int[segments];
+			segType = new int[segments];
+			for (int s = 0; s < topology.getNumSegments(); s++) {
+				add(topology.getFrom(s), topology.getTo(s),
+						stringId(topology.getRoadName(s)), stringId(topology.getRoadType(s)));
+			}
+		}
+
+		int pointId(GeographicPoint pt)
+		{
+			Integer id = pointIds.get(pt);
+			if (id == null) {
+				id = numPoints;
+				pointIds.put(pt, id);
+				if (numPoints == points.length) {
+					int capacity = numPoints * 2;
+					points = Arrays.copyOf(points, capacity);
+					outSegs = Arrays.copyOf(outSegs, capacity);
+					outCount = Arrays.copyOf(outCount, capacity);
+					inSegs = Arrays.copyOf(inSegs, capacity);
+					inCount = Arrays.copyOf(inCount, capacity);
+				}
+				points[numPoints] = pt;
+				outSegs[numPoints] = new int[2];
+				inSegs[numPoints] = new int[2];
+				numPoints++;
+			}
+			return id;
+		}
+
+		int stringId(String s)
+		{
+			Integer id = stringIds.get(s);
+			if (id == null) {
+				id = numStrings;
+				stringIds.put(s, id);
+				if (numStrings == strings.length) {
+					strings = Arrays.copyOf(strings, numStrings * 2);
+				}
+				strings[numStrings++] = s;
+			}
+			return id;
+		}
+
+		void addSegment(Segment seg)
+		{
+			add(pointId(seg.from), pointId(seg.to), stringId(seg.roadName),
+					stringId(seg.roadType));
+		}
+
+		private void add(int from, int to, int name, int type)
+		{
+			if (numSegments == segFrom.length) {
+				int capacity = numSegments * 2;
+				segFrom = Arrays.copyOf(segFrom, capacity);
+				segTo = Arrays.copyOf(segTo, capacity);
+				segName = Arrays.copyOf(segName, capacity);
+				segType = Arrays.copyOf(segType, capacity);
+			}
+			int s = numSegments++;
+			segFrom[s] = from;
+			segTo[s] = to;
+			segName[s] = name;
+			segType[s] = type;
+			if (outCount[from] == outSegs[from].length) {
+				outSegs[from] = Arrays.copyOf(outSegs[from], outCount[from] * 2);
+			}
+			outSegs[from][outCount[from]++] = s;
+			if (inCount[to] == inSegs[to].length) {
+				inSegs[to] = Arrays.copyOf(inSegs[to], inCount[to] * 2);
+			}
+			inSegs[to][inCount[to]++] = s;
+		}
+
+		// Remove the first segment in file order with the same points,
+		// name and type
+		boolean removeSegment(Segment seg)
+		{
+			Integer from = pointIds.get(seg.from);
+			Integer to = pointIds.get(seg.to);
+			Integer name = stringIds.get(seg.roadName);
+			Integer type = stringIds.get(seg.roadType);
+			if (from == null || to == null || name == null || type == null) {
+				return false;
+			}
+			for (int i = 0; i < outCount[from]; i++) {
+				int s = outSegs[from][i];
+				if (segTo[s] == to && segName[s] == name && segType[s] == type) {
+					outCount[from] = removeAt(outSegs[from], outCount[from], i);
+					for (int j = 0; j < inCount[to]; j++) {
+						if (inSegs[to][j] == s) {
+							inCount[to] = removeAt(inSegs[to], inCount[to], j);
+							break;
+						}
+					}
+					return true;
+				}
+			}
+			return false;
+		}
+
+		private static int removeAt(int[] list, int size, int i)
+		{
+			System.arraycopy(list, i + 1, list, i, size - i - 1);
+			return size - 1;
+		}
+
+		Set<GeographicPoint> toPoints(BitSet ids)
+		{
+			Set<GeographicPoint> result = new HashSet<GeographicPoint>();
+			for (int p = ids.nextSetBit(0); p >= 0; p = ids.nextSetBit(p + 1)) {
+				result.add(points[p]);
+			}
+			return result;
+		}
+
+		public int getNumSegments() { return numSegments; }
+
+		public boolean isIntersection(int p) { return intersection.get(p); }
+
+		public int getOutDegree(int p) { return outCount[p]; }
+
+		public int getInDegree(int p) { return inCount[p]; }
+
+		public int getOut(int p, int i) { return outSegs[p][i]; }
+
+		public int getIn(int p, int i) { return inSegs[p][i]; }
+
+		public int getFrom(int s) { return segFrom[s]; }
+
+		public int getTo(int s) { return segTo[s]; }
+
+		public int getNameId(int s) { return segName[s]; }
+
+		public int getTypeId(int s) { return segType[s]; }
+	}
+}
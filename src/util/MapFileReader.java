@@ -0,0 +1,86 @@
+/**
+ * Reads the lines of a .map file:
+ * lat1 lon1 lat2 lon2 roadName roadType
+ *
+ * and hands each one to a SegmentHandler without building any
+ * intermediate objects.
+ */
+package util;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class MapFileReader
+{
+	private static final Pattern TOKEN_SPLITTER = Pattern.compile("[^\\s\"']+|\"([^\"]*)\"");
+
+	/**
+	 * Receives the segments read from a .map file.
+	 */
+	public interface SegmentHandler
+	{
+		void segment(double lat1, double lon1, double lat2, double lon2,
+				String roadName, String roadType);
+	}
+
+	/**
+	 * Read every line of the file and pass it to the handler.  A file
+	 * which cannot be read is reported and read no further.
+	 * @param filename The file containing the road data.
+	 * @param handler The handler receiving the segments.
+	 */
+	public static void read(String filename, SegmentHandler handler)
+	{
+		try {
+			parse(filename, handler);
+		} catch (IOException e) {
+			System.err.println("Problem loading map file: " + filename);
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Read every line of the file and pass it to the handler, failing if
+	 * the file cannot be read to the end.
+	 * @param filename The file containing the road data.
+	 * @param handler The handler receiving the segments.
+	 * @throws IOException If the file cannot be read.
+	 */
+	public static void parse(String filename, SegmentHandler handler) throws IOException
+	{
+		try (BufferedReader reader = new BufferedReader(new FileReader(filename))) {
+			String nextLine;
+			while ((nextLine = reader.readLine()) != null) {
+				parseLine(nextLine, handler);
+			}
+		}
+	}
+
+	/**
+	 * Split one line of a .map file and pass it to the handler.
+	 * @param input The line.
+	 * @param handler The handler receiving the segment.
+	 * @throws IllegalArgumentException If the line has too few fields or
+	 * a coordinate is not a number.
+	 */
+	public static void parseLine(String input, SegmentHandler handler)
+	{
+		String[] tokens = new String[6];
+		int count = 0;
+		Matcher m = TOKEN_SPLITTER.matcher(input);
+		while (count < tokens.length && m.find()) {
+			tokens[count++] = m.group(1) != null ? m.group(1) : m.group();
+		}
+		if (count < tokens.length) {
+			throw new IllegalArgumentException("Expected " + tokens.length
+					+ " fields: " + input);
+		}
+
+		handler.segment(Double.parseDouble(tokens[0]), Double.parseDouble(tokens[1]),
+				Double.parseDouble(tokens[2]), Double.parseDouble(tokens[3]),
+				tokens[4], tokens[5]);
+	}
+}
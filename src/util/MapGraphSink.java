@@ -0,0 +1,49 @@
+/**
+ * A RoadMapSink that builds a roadgraph.MapGraph.
+ */
+package util;
+
+import java.util.List;
+import java.util.Set;
+
+import geography.GeographicPoint;
+import roadgraph.MapGraph;
+
+public class MapGraphSink implements RoadMapSink
+{
+	private MapGraph map;
+	private Set<GeographicPoint> intersectionsToLoad;
+
+	/**
+	 * @param map The graph to load the map into.
+	 */
+	public MapGraphSink(MapGraph map)
+	{
+		this(map, null);
+	}
+
+	/**
+	 * @param map The graph to load the map into.
+	 * @param intersectionsToLoad If not null, every intersection is also
+	 *   added to this set.
+	 */
+	public MapGraphSink(MapGraph map, Set<GeographicPoint> intersectionsToLoad)
+	{
+		this.map = map;
+		this.intersectionsToLoad = intersectionsToLoad;
+	}
+
+	public void addIntersection(GeographicPoint pt)
+	{
+		map.addVertex(pt);
+		if (intersectionsToLoad != null) {
+			intersectionsToLoad.add(pt);
+		}
+	}
+
+	public void addEdge(GeographicPoint from, GeographicPoint to, String roadName,
+			String roadType, double length, List<GeographicPoint> geometry)
+	{
+		map.addEdge(from, to, roadName, roadType, length);
+	}
+}
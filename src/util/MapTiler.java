@@ -0,0 +1,187 @@
+/**
+ * Cuts the road graph of a .map file into square lat/lon tiles so that
+ * a region can be loaded a tile at a time (see roadgraph.TiledMapGraph).
+ *
+ * Every intersection belongs to the tile containing it, and every edge
+ * to the tile of its start point.  An edge may end in another tile; its
+ * end point is then recorded as a boundary node of the start tile, and
+ * the other tile as one of its neighbours.
+ *
+ * The output directory holds one file per tile, tile_ROW_COL.tile, with
+ * lines:
+ * N lat lon                                   (an intersection)
+ * E length lat1 lon1 lat2 lon2 roadName roadType  (an edge, length in km)
+ * B lat lon                                   (a boundary node)
+ *
+ * and an index file, tiles.index, whose first line is the tile size in
+ * degrees, followed by one line per tile:
+ * row col numNodes numEdges numBoundaryNodes neighbourRow,neighbourCol ...
+ */
+package util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import geography.GeographicPoint;
+
+public class MapTiler implements RoadMapSink
+{
+	public static final String INDEX_FILE = "tiles.index";
+
+	private double tileSize;
+	private Map<Long,Tile> tiles;
+
+	private static class Tile
+	{
+		int row;
+		int col;
+		List<GeographicPoint> nodes = new ArrayList<GeographicPoint>();
+		List<String> edges = new ArrayList<String>();
+		LinkedHashSet<GeographicPoint> boundary = new LinkedHashSet<GeographicPoint>();
+		LinkedHashSet<Long> neighbours = new LinkedHashSet<Long>();
+	}
+
+	/**
+	 * @param tileSize The width and height of a tile, in degrees.
+	 */
+	public MapTiler(double tileSize)
+	{
+		if (tileSize <= 0) {
+			throw new IllegalArgumentException("Tile size must be positive");
+		}
+		this.tileSize = tileSize;
+		this.tiles = new TreeMap<Long,Tile>();
+	}
+
+	/**
+	 * Cut a .map file into tiles.
+	 * @param mapFile The file containing the road data.
+	 * @param outputDir The directory to write the tiles and index to.
+	 * @param tileSize The width and height of a tile, in degrees.
+	 */
+	public static void tile(String mapFile, String outputDir, double tileSize) throws IOException
+	{
+		MapTiler tiler = new MapTiler(tileSize);
+		RoadMapPipeline.load(mapFile, tiler);
+		tiler.write(outputDir);
+	}
+
+	/**
+	 * @return The row of the tile containing the latitude.
+	 */
+	public static int tileRow(double lat, double tileSize)
+	{
+		return (int)Math.floor(lat / tileSize);
+	}
+
+	/**
+	 * @return The column of the tile containing the longitude.
+	 */
+	public static int tileCol(double lon, double tileSize)
+	{
+		return (int)Math.floor(lon / tileSize);
+	}
+
+	/**
+	 * @return A single key identifying the tile at row, col.
+	 */
+	public static long tileKey(int row, int col)
+	{
+		return ((long)row << 32) | (col & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * @return The name of the file holding the tile at row, col.
+	 */
+	public static String tileFileName(int row, int col)
+	{
+		return "tile_" + row + "_" + col + ".tile";
+	}
+
+	public void addIntersection(GeographicPoint pt)
+	{
+		tileOf(pt).nodes.add(pt);
+	}
+
+	public void addEdge(GeographicPoint from, GeographicPoint to, String roadName,
+			String roadType, double length, List<GeographicPoint> geometry)
+	{
+		Tile tile = tileOf(from);
+		tile.edges.add(length + " " + from.getX() + " " + from.getY() + " "
+				+ to.getX() + " " + to.getY() + " \"" + roadName + "\" " + roadType);
+		Tile other = tileOf(to);
+		if (other != tile) {
+			tile.boundary.add(to);
+			tile.neighbours.add(tileKey(other.row, other.col));
+		}
+	}
+
+	/**
+	 * Write the tiles and their index.
+	 * @param outputDir The directory to write to; it is created if needed.
+	 */
+	public void write(String outputDir) throws IOException
+	{
+		File dir = new File(outputDir);
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Cannot create tile directory " + outputDir);
+		}
+
+		try (PrintWriter index = new PrintWriter(new File(dir, INDEX_FILE), "UTF-8")) {
+			index.println(tileSize);
+			for (Tile tile : tiles.values()) {
+				try (PrintWriter out = new PrintWriter(
+						new File(dir, tileFileName(tile.row, tile.col)), "UTF-8")) {
+					for (GeographicPoint pt : tile.nodes) {
+						out.println("N " + pt.getX() + " " + pt.getY());
+					}
+					for (String edge : tile.edges) {
+						out.println("E " + edge);
+					}
+					for (GeographicPoint pt : tile.boundary) {
+						out.println("B " + pt.getX() + " " + pt.getY());
+					}
+				}
+
+				StringBuilder line = new StringBuilder();
+				line.append(tile.row).append(' ').append(tile.col).append(' ')
+					.append(tile.nodes.size()).append(' ').append(tile.edges.size()).append(' ')
+					.append(tile.boundary.size());
+				for (long key : tile.neighbours) {
+					line.append(' ').append((int)(key >> 32)).append(',').append((int)key);
+				}
+				index.println(line);
+			}
+		}
+	}
+
+	private Tile tileOf(GeographicPoint pt)
+	{
+		int row = tileRow(pt.getX(), tileSize);
+		int col = tileCol(pt.getY(), tileSize);
+		long key = tileKey(row, col);
+		Tile tile = tiles.get(key);
+		if (tile == null) {
+			tile = new Tile();
+			tile.row = row;
+			tile.col = col;
+			tiles.put(key, tile);
+		}
+		return tile;
+	}
+
+	public static void main(String[] args) throws IOException
+	{
+		if (args.length != 3) {
+			System.out.println("Usage: MapTiler file.map outputDir tileSizeDegrees");
+			return;
+		}
+		tile(args[0], args[1], Double.parseDouble(args[2]));
+	}
+}
@@ -0,0 +1,311 @@
+/**
+ * A static R-tree over the bounding boxes of a fixed set of items, built
+ * by Sort-Tile-Recursive (STR) packing.
+ *
+ * Items are identified by their index in the arrays the tree is built
+ * from.  Every level of the tree is stored in flat arrays: the entries
+ * are sorted into vertical slices by x and each slice by y, and runs of
+ * NODE_SIZE consecutive entries become one entry of the level above.
+ * Nearest neighbour queries walk the tree best first, so they only open
+ * the nodes whose boxes are closer than the k-th best item found so far.
+ */
+package util;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+public class PackedRTree
+{
+	private static final int NODE_SIZE = 16;
+
+	/**
+	 * The exact distance from the query to an item.  It must never be
+	 * less than the distance from the query to the item's box, which is
+	 * what the tree uses to prune.
+	 */
+	public interface ItemDistance
+	{
+		double distance(int item);
+	}
+
+	// Per level (0 = leaves): the boxes (minX, minY, maxX, maxY per entry),
+	// and for leaves the item of each entry, for the other levels the
+	// range of children [childStart, childEnd) in the level below.
+	private double[][] boxes;
+	private int[][] childStart;
+	private int[][] childEnd;
+	private int[] levelSize;
+
+	/**
+	 * Build the tree.  The four arrays give the bounding box of each item
+	 * and must have the same length.
+	 */
+	public PackedRTree(double[] minX, double[] minY, double[] maxX, double[] maxY)
+	{
+		int n = minX.length;
+		int levels = 1;
+		for (int size = n; size > 1; size = (size + NODE_SIZE - 1) / NODE_SIZE) {
+			levels++;
+		}
+		boxes = new double[levels][];
+		childStart = new int[levels][];
+		childEnd = new int[levels][];
+		levelSize = new int[levels];
+
+		double[] levelBoxes = new double[n * 4];
+		int[] refs = new int[n];
+		for (int i = 0; i < n; i++) {
+			levelBoxes[i * 4] = minX[i];
+			levelBoxes[i * 4 + 1] = minY[i];
+			levelBoxes[i * 4 + 2] = maxX[i];
+			levelBoxes[i * 4 + 3] = maxY[i];
+			refs[i] = i;
+		}
+		int[] ends = refs;
+
+		for (int level = 0; level < levels; level++) {
+			int size = refs.length;
+			int[] order = strOrder(levelBoxes, size);
+			boxes[level] = new double[size * 4];
+			childStart[level] = new int[size];
+			childEnd[level] = new int[size];
+			levelSize[level] = size;
+			for (int i = 0; i < size; i++) {
+				System.arraycopy(levelBoxes, order[i] * 4, boxes[level], i * 4, 4);
+				childStart[level][i] = refs[order[i]];
+				childEnd[level][i] = ends[order[i]];
+			}
+			if (level == levels - 1) {
+				break;
+			}
+
+			// Group runs of NODE_SIZE entries into the next level
+			int parents = (size + NODE_SIZE - 1) / NODE_SIZE;
+			levelBoxes = new double[parents * 4];
+			refs = new int[parents];
+			ends = new int[parents];
+			double[] b = boxes[level];
+			for (int p = 0; p < parents; p++) {
+				int start = p * NODE_SIZE;
+				int end = Math.min(start + NODE_SIZE, size);
+				double x0 = Double.POSITIVE_INFINITY;
+				double y0 = Double.POSITIVE_INFINITY;
+				double x1 = Double.NEGATIVE_INFINITY;
+				double y1 = Double.NEGATIVE_INFINITY;
+				for (int c = start; c < end; c++) {
+					x0 = Math.min(x0, b[c * 4]);
+					y0 = Math.min(y0, b[c * 4 + 1]);
+					x1 = Math.max(x1, b[c * 4 + 2]);
+					y1 = Math.max(y1, b[c * 4 + 3]);
+				}
+				levelBoxes[p * 4] = x0;
+				levelBoxes[p * 4 + 1] = y0;
+				levelBoxes[p * 4 + 2] = x1;
+				levelBoxes[p * 4 + 3] = y1;
+				refs[p] = start;
+				ends[p] = end;
+			}
+		}
+	}
+
+	/** @return The number of items in the tree. */
+	public int size()
+	{
+		return levelSize[0];
+	}
+
+	// Sort-Tile-Recursive order: sort by x centre, cut into slices of
+	// about sqrt(size / NODE_SIZE) nodes' worth of entries, and sort
+	// each slice by y centre.
+	private static int[] strOrder(double[] b, int size)
+	{
+		Integer[] byX = new Integer[size];
+		for (int i = 0; i < size; i++) {
+			byX[i] = i;
+		}
+		Arrays.sort(byX, (i, j) -> Double.compare(b[i * 4] + b[i * 4 + 2], b[j * 4] + b[j * 4 + 2]));
+
+		int nodes = (size + NODE_SIZE - 1) / NODE_SIZE;
+		int slices = (int) Math.ceil(Math.sqrt(nodes));
+		int sliceSize = slices == 0 ? size : NODE_SIZE * ((nodes + slices - 1) / slices);
+		int[] order = new int[size];
+		for (int start = 0; start < size; start += sliceSize) {
+			int end = Math.min(start + sliceSize, size);
+			Arrays.sort(byX, start, end,
+					(i, j) -> Double.compare(b[i * 4 + 1] + b[i * 4 + 3], b[j * 4 + 1] + b[j * 4 + 3]));
+		}
+		for (int i = 0; i < size; i++) {
+			order[i] = byX[i];
+		}
+		return order;
+	}
+
+	/**
+	 * Find the items whose boxes intersect a query box.
+	 * @param minX The left edge of the query box.
+	 * @param minY The bottom edge of the query box.
+	 * @param maxX The right edge of the query box.
+	 * @param maxY The top edge of the query box.
+	 * @param visitor Receives each item found, in no particular order.
+	 */
+	public void search(double minX, double minY, double maxX, double maxY, IntConsumer visitor)
+	{
+		int top = levelSize.length - 1;
+		for (int i = 0; i < levelSize[top]; i++) {
+			search(top, i, minX, minY, maxX, maxY, visitor);
+		}
+	}
+
+	private void search(int level, int entry, double minX, double minY, double maxX,
+			double maxY, IntConsumer visitor)
+	{
+		double[] b = boxes[level];
+		if (b[entry * 4] > maxX || b[entry * 4 + 2] < minX ||
+				b[entry * 4 + 1] > maxY || b[entry * 4 + 3] < minY) {
+			return;
+		}
+		if (level == 0) {
+			visitor.accept(childStart[0][entry]);
+			return;
+		}
+		for (int c = childStart[level][entry]; c < childEnd[level][entry]; c++) {
+			search(level - 1, c, minX, minY, maxX, maxY, visitor);
+		}
+	}
+
+	/**
+	 * Find the k items nearest to a point.
+	 * @param x The x coordinate of the query, in the units of the boxes.
+	 * @param y The y coordinate of the query.
+	 * @param k The number of items to find.
+	 * @param distance The exact distance from the query to an item.
+	 * @return Up to k items, nearest first.
+	 */
+	public int[] nearest(double x, double y, int k, ItemDistance distance)
+	{
+		int levels = levelSize.length;
+		if (k <= 0 || levelSize[0] == 0) {
+			return new int[0];
+		}
+
+		// Best results so far, sorted by distance
+		int[] best = new int[k];
+		double[] bestDist = new double[k];
+		int found = 0;
+
+		// Min-heap of tree entries by distance to their box.  Leaves are
+		// pushed with their exact distance.
+		Heap heap = new Heap();
+		int top = levels - 1;
+		for (int i = 0; i < levelSize[top]; i++) {
+			push(heap, x, y, top, i, distance);
+		}
+		while (heap.size > 0) {
+			double d = heap.dist[0];
+			if (found == k && d >= bestDist[k - 1]) {
+				break;
+			}
+			int level = heap.level[0];
+			int entry = heap.entry[0];
+			heap.pop();
+
+			if (level == 0) {
+				int pos = found < k ? found++ : k - 1;
+				while (pos > 0 && bestDist[pos - 1] > d) {
+					best[pos] = best[pos - 1];
+					bestDist[pos] = bestDist[pos - 1];
+					pos--;
+				}
+				best[pos] = childStart[0][entry];
+				bestDist[pos] = d;
+			}
+			else {
+				for (int c = childStart[level][entry]; c < childEnd[level][entry]; c++) {
+					push(heap, x, y, level - 1, c, distance);
+				}
+			}
+		}
+		return Arrays.copyOf(best, found);
+	}
+
+	private void push(Heap heap, double x, double y, int level, int entry, ItemDistance distance)
+	{
+		double d;
+		if (level == 0) {
+			d = distance.distance(childStart[0][entry]);
+		}
+		else {
+			double[] b = boxes[level];
+			double dx = Math.max(0, Math.max(b[entry * 4] - x, x - b[entry * 4 + 2]));
+			double dy = Math.max(0, Math.max(b[entry * 4 + 1] - y, y - b[entry * 4 + 3]));
+			d = Math.sqrt(dx * dx + dy * dy);
+		}
+		heap.push(d, level, entry);
+	}
+
+
+	/**
+	 * A binary min-heap of (distance, level, entry) in parallel arrays.
+	 */
+	private static class Heap
+	{
+		double[] dist = new double[64];
+		int[] level = new int[64];
+		int[] entry = new int[64];
+		int size;
+
+		void push(double d, int l, int e)
+		{
+			if (size == dist.length) {
+				dist = Arrays.copyOf(dist, size * 2);
+				level = Arrays.copyOf(level, size * 2);
+				entry = Arrays.copyOf(entry, size * 2);
+			}
+			int i = size++;
+			while (i > 0) {
+				int parent = (i - 1) / 2;
+				if (dist[parent] <= d) {
+					break;
+				}
+				set(i, parent);
+				i = parent;
+			}
+			dist[i] = d;
+			level[i] = l;
+			entry[i] = e;
+		}
+
+		void pop()
+		{
+			size--;
+			double d = dist[size];
+			int l = level[size];
+			int e = entry[size];
+			int i = 0;
+			while (true) {
+				int child = 2 * i + 1;
+				if (child >= size) {
+					break;
+				}
+				if (child + 1 < size && dist[child + 1] < dist[child]) {
+					child++;
+				}
+				if (dist[child] >= d) {
+					break;
+				}
+				set(i, child);
+				i = child;
+			}
+			dist[i] = d;
+			level[i] = l;
+			entry[i] = e;
+		}
+
+		private void set(int to, int from)
+		{
+			dist[to] = dist[from];
+			level[to] = level[from];
+			entry[to] = entry[from];
+		}
+	}
+}
@@ -0,0 +1,361 @@
+/**
+ * PageRank and personalized PageRank of the vertices of a basicgraph.Graph,
+ * for ranking the hubs of the airport routes graph.
+ *
+ * The graph is copied when the engine is created into flat arrays of its
+ * in-edges (CSR form), so each iteration pulls the rank of a vertex from
+ * its in-neighbors and every thread writes only its own block of vertices.
+ * The ranks are power iterated between two primitive arrays, swapped each
+ * step, until the total change of an iteration falls below the tolerance.
+ * The rank of vertices without out-edges is handed back by the teleport
+ * vector, so the ranks always sum to one.
+ *
+ * Personalized PageRank teleports only to a set of seed vertices, ranking
+ * the vertices by how easily they are reached from the seeds.  Many seed
+ * sets are ranked at once by compute(List), which shares the snapshot and
+ * runs one seed set per thread.  With a damping of one and a strongly
+ * connected graph the ranks are the principal eigenvector of the
+ * transition matrix.
+ *
+ * Usage: PageRank FILE [top [seed label...]]
+ */
+package util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import basicgraph.Graph;
+import basicgraph.GraphAdjList;
+
+public class PageRank
+{
+	// Vertices updated by one task of a parallel iteration
+	private static final int MIN_VERTICES_PER_BLOCK = 1024;
+
+	private final int n;
+	// The in-edges of vertex v are the sources inStart[v] to inStart[v+1]-1
+	private final int[] inStart;
+	private final int[] inSource;
+	// 1 / out-degree, or 0 for a vertex without out-edges
+	private final double[] outWeight;
+	private final String[] labels;
+	private final HashMap<String, Integer> ids = new HashMap<String, Integer>();
+
+	private double damping = 0.85;
+	private double tolerance = 1e-10;
+	private int maxIterations = 100;
+	private int parallelism = ForkJoinPool.getCommonPoolParallelism();
+
+	private PageRank(int n, int[] inStart, int[] inSource, double[] outWeight, String[] labels)
+	{
+		this.n = n;
+		this.inStart = inStart;
+		this.inSource = inSource;
+		this.outWeight = outWeight;
+		this.labels = labels;
+		for (int v = 0; v < n; v++) {
+			if (labels[v] != null) {
+				ids.put(labels[v], v);
+			}
+		}
+	}
+
+	/**
+	 * Prepare to rank the vertices of a graph.  Parallel edges count
+	 * once each.
+	 * @param graph The graph.
+	 * @return The engine, whose vertex i is vertex i of the graph.
+	 */
+	public static PageRank of(Graph graph)
+	{
+		int n = graph.getNumVertices();
+		int[] inStart = new int[n + 1];
+		double[] outWeight = new double[n];
+		for (int v = 0; v < n; v++) {
+			int degree = graph.getOutDegree(v);
+			outWeight[v] = degree == 0 ? 0 : 1.0 / degree;
+			graph.forEachNeighbor(v, w -> inStart[w + 1]++);
+		}
+		for (int v = 0; v < n; v++) {
+			inStart[v + 1] += inStart[v];
+		}
+		int[] inSource = new int[inStart[n]];
+		int[] next = Arrays.copyOf(inStart, n);
+		for (int v = 0; v < n; v++) {
+			int from = v;
+			graph.forEachNeighbor(v, w -> inSource[next[w]++] = from);
+		}
+		String[] labels = new String[n];
+		for (int v = 0; v < n; v++) {
+			labels[v] = graph.getLabel(v);
+		}
+		return new PageRank(n, inStart, inSource, outWeight, labels);
+	}
+
+	/**
+	 * Set the probability of following an edge rather than teleporting.
+	 * @param damping The probability, from 0 to 1; 0.85 by default.
+	 */
+	public void setDamping(double damping)
+	{
+		if (!(damping >= 0 && damping <= 1)) {
+			throw new IllegalArgumentException("damping must be from 0 to 1");
+		}
+		this.damping = damping;
+	}
+
+	/**
+	 * Set when to stop iterating.
+	 * @param tolerance The total change of the ranks in an iteration
+	 * below which they are taken to have converged.
+	 * @param maxIterations The most iterations to run regardless.
+	 */
+	public void setConvergence(double tolerance, int maxIterations)
+	{
+		this.tolerance = tolerance;
+		this.maxIterations = Math.max(1, maxIterations);
+	}
+
+	/**
+	 * Set the number of threads to iterate with.
+	 * @param parallelism The number of threads, 1 to run in the caller.
+	 */
+	public void setParallelism(int parallelism)
+	{
+		this.parallelism = Math.max(1, parallelism);
+	}
+
+	/** @return The number of vertices. */
+	public int getNumVertices()
+	{
+		return n;
+	}
+
+	/** @return The label of a vertex, or null if it has none. */
+	public String getLabel(int v)
+	{
+		return labels[v];
+	}
+
+	/**
+	 * Find a vertex by its label.
+	 * @param label The label, such as the code of an airport.
+	 * @return The vertex, or -1 if no vertex has the label.
+	 */
+	public int getVertex(String label)
+	{
+		Integer v = ids.get(label);
+		return v == null ? -1 : v;
+	}
+
+	/**
+	 * Compute the PageRank of every vertex, teleporting to all vertices
+	 * alike.  The vertices are split over the threads within each
+	 * iteration.
+	 * @return The rank of vertex i at index i; the ranks sum to one.
+	 */
+	public double[] compute()
+	{
+		double[] teleport = new double[n];
+		Arrays.fill(teleport, 1.0 / n);
+		if (parallelism == 1 || n < 2 * MIN_VERTICES_PER_BLOCK) {
+			return iterate(teleport, null);
+		}
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			return iterate(teleport, pool);
+		}
+		finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Compute the personalized PageRank of every vertex, teleporting only
+	 * to the seeds.
+	 * @param seeds The vertices to teleport to, alike.
+	 * @return The rank of vertex i at index i; the ranks sum to one.
+	 */
+	public double[] compute(int... seeds)
+	{
+		return iterate(teleport(seeds), null);
+	}
+
+	/**
+	 * Compute the personalized PageRank for each of many seed sets.  The
+	 * seed sets are split over the threads, each iterated by one thread.
+	 * @param seedSets The seeds of each ranking.
+	 * @return The ranks of each seed set, in order.
+	 */
+	public List<double[]> compute(List<int[]> seedSets)
+	{
+		List<double[]> teleports = new ArrayList<double[]>(seedSets.size());
+		for (int[] seeds : seedSets) {
+			teleports.add(teleport(seeds));
+		}
+		if (parallelism == 1) {
+			return teleports.stream().map(t -> iterate(t, null)).collect(Collectors.toList());
+		}
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			return pool.submit(() -> teleports.parallelStream()
+					.map(t -> iterate(t, null))
+					.collect(Collectors.toList())).join();
+		}
+		finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * List the labels of the vertices with the highest ranks.
+	 * @param ranks The ranks, as returned by compute.
+	 * @param k The number of vertices to list.
+	 * @return Up to k labels, highest rank first.
+	 */
+	public List<String> rankedLabels(double[] ranks, int k)
+	{
+		List<String> result = new ArrayList<String>();
+		for (int v : Betweenness.top(ranks, k)) {
+			result.add(labels[v]);
+		}
+		return result;
+	}
+
+	// The teleport vector of a seed set
+	private double[] teleport(int[] seeds)
+	{
+		if (seeds.length == 0) {
+			throw new IllegalArgumentException("no seeds");
+		}
+		double[] teleport = new double[n];
+		for (int s : seeds) {
+			teleport[s] += 1.0 / seeds.length;
+		}
+		return teleport;
+	}
+
+	// Power iteration from the teleport vector, in blocks of vertices on
+	// the pool, or all in the caller when the pool is null
+	private double[] iterate(double[] teleport, ForkJoinPool pool)
+	{
+		Iteration it = new Iteration(teleport);
+		int blocks = pool == null ? 1
+				: Math.min(parallelism * 4, Math.max(1, n / MIN_VERTICES_PER_BLOCK));
+		int size = (n + blocks - 1) / Math.max(1, blocks);
+		for (int i = 0; i < maxIterations; i++) {
+			double dangling;
+			double delta;
+			if (pool == null) {
+				dangling = it.spread(0, n);
+				delta = it.pull(0, n, dangling);
+			}
+			else {
+				dangling = pool.submit(() -> IntStream.range(0, blocks).parallel()
+						.mapToDouble(b -> it.spread(b * size, Math.min(n, (b + 1) * size)))
+						.sum()).join();
+				double d = dangling;
+				delta = pool.submit(() -> IntStream.range(0, blocks).parallel()
+						.mapToDouble(b -> it.pull(b * size, Math.min(n, (b + 1) * size), d))
+						.sum()).join();
+			}
+			it.swap();
+			if (delta < tolerance) {
+				break;
+			}
+		}
+		return it.rank;
+	}
+
+	/**
+	 * The two rank arrays of one power iteration and the share of its
+	 * rank each vertex passes along every out-edge.
+	 */
+	private class Iteration
+	{
+		final double[] teleport;
+		double[] rank;
+		double[] next = new double[n];
+		final double[] share = new double[n];
+
+		Iteration(double[] teleport)
+		{
+			this.teleport = teleport;
+			this.rank = teleport.clone();
+		}
+
+		// Set the shares of vertices from to to-1 and return the rank of
+		// those without out-edges
+		double spread(int from, int to)
+		{
+			double dangling = 0;
+			for (int v = from; v < to; v++) {
+				share[v] = rank[v] * outWeight[v];
+				if (outWeight[v] == 0) {
+					dangling += rank[v];
+				}
+			}
+			return dangling;
+		}
+
+		// Set the next ranks of vertices from to to-1 and return how much
+		// they changed
+		double pull(int from, int to, double dangling)
+		{
+			double jump = damping * dangling + 1 - damping;
+			double delta = 0;
+			for (int v = from; v < to; v++) {
+				double sum = 0;
+				for (int e = inStart[v]; e < inStart[v + 1]; e++) {
+					sum += share[inSource[e]];
+				}
+				double r = damping * sum + jump * teleport[v];
+				delta += Math.abs(r - rank[v]);
+				next[v] = r;
+			}
+			return delta;
+		}
+
+		void swap()
+		{
+			double[] t = rank;
+			rank = next;
+			next = t;
+		}
+	}
+
+	public static void main(String[] args)
+	{
+		if (args.length < 1) {
+			System.out.println("Usage: PageRank FILE [top [seed label...]]");
+			return;
+		}
+		GraphAdjList graph = new GraphAdjList();
+		GraphLoader.loadRoutes(args[0], graph);
+		PageRank engine = of(graph);
+		int top = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+		double[] ranks;
+		if (args.length > 2) {
+			int[] seeds = new int[args.length - 2];
+			for (int i = 0; i < seeds.length; i++) {
+				seeds[i] = engine.getVertex(args[i + 2]);
+				if (seeds[i] < 0) {
+					System.out.println("No such vertex: " + args[i + 2]);
+					return;
+				}
+			}
+			ranks = engine.compute(seeds);
+		}
+		else {
+			ranks = engine.compute();
+		}
+		for (int v : Betweenness.top(ranks, top)) {
+			System.out.println(engine.getLabel(v) + "\t" + ranks[v]);
+		}
+	}
+}
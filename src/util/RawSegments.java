@@ -0,0 +1,39 @@
+/**
+ * The raw segments of a map by integer id, as the rules of RoadTopology
+ * which collapse them into edges see them.  Road names and types are
+ * compared by their interned ids.
+ */
+package util;
+
+interface RawSegments
+{
+	/** @return An upper bound on the segment ids. */
+	int getNumSegments();
+
+	/** @return true if the point is currently an intersection. */
+	boolean isIntersection(int p);
+
+	/** @return The number of segments leaving the point. */
+	int getOutDegree(int p);
+
+	/** @return The number of segments entering the point. */
+	int getInDegree(int p);
+
+	/** @return The i-th segment leaving the point, in file order. */
+	int getOut(int p, int i);
+
+	/** @return The i-th segment entering the point, in file order. */
+	int getIn(int p, int i);
+
+	/** @return The start point of a segment. */
+	int getFrom(int s);
+
+	/** @return The end point of a segment. */
+	int getTo(int s);
+
+	/** @return The interned id of the road name of a segment. */
+	int getNameId(int s);
+
+	/** @return The interned id of the road type of a segment. */
+	int getTypeId(int s);
+}
@@ -0,0 +1,87 @@
+/**
+ * Loads a .map file once and feeds the collapsed road graph to any
+ * number of sinks.
+ *
+ * The file is parsed, its intersections found and the chains between
+ * them traced a single time; every sink sees the same intersections and
+ * edges, so building a MapGraph, a basicgraph and an intersections file
+ * for a region costs one pass over the file.
+ */
+package util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import geography.GeographicPoint;
+
+public class RoadMapPipeline
+{
+	/**
+	 * Load a map file into the given sinks.
+	 *
+	 * The file contains data lines as follows:
+	 * lat1 lon1 lat2 lon2 roadName roadType
+	 * 
+	 * where each line is a segment of a road
+	 * These road segments are assumed to be ONE WAY.
+	 * 
+	 * @param filename The file containing the road data.
+	 * @param sinks The sinks receiving the intersections and edges.
+	 */
+	public static void load(String filename, RoadMapSink... sinks)
+	{
+		run(RoadTopology.load(filename), sinks);
+	}
+
+	/**
+	 * Feed an already loaded topology to the given sinks.
+	 * @param topology The topology of a map file.
+	 * @param sinks The sinks receiving the intersections and edges.
+	 */
+	public static void run(RoadTopology topology, RoadMapSink... sinks)
+	{
+		for (int p : topology.getIntersections()) {
+			GeographicPoint pt = topology.getPoint(p);
+			for (RoadMapSink sink : sinks) {
+				sink.addIntersection(pt);
+			}
+		}
+
+		topology.traceEdges((segment, endId, interior, interiorCount) -> {
+			GeographicPoint start = topology.getPoint(topology.getFrom(segment));
+			GeographicPoint end = topology.getPoint(endId);
+			List<GeographicPoint> pointsOnEdge = 
+					new ArrayList<GeographicPoint>(interiorCount);
+			for (int i = 0; i < interiorCount; i++) {
+				pointsOnEdge.add(topology.getPoint(interior[i]));
+			}
+			pointsOnEdge = Collections.unmodifiableList(pointsOnEdge);
+			double length = getRoadLength(start, end, pointsOnEdge);
+			String roadName = topology.getRoadName(segment);
+			String roadType = topology.getRoadType(segment);
+			for (RoadMapSink sink : sinks) {
+				sink.addEdge(start, end, roadName, roadType, length, pointsOnEdge);
+			}
+		});
+
+		for (RoadMapSink sink : sinks) {
+			sink.finish();
+		}
+	}
+
+	// Calculate the length of this road segment taking into account all of the 
+	// intermediate geographic points.
+	static double getRoadLength(GeographicPoint start, GeographicPoint end,
+			List<GeographicPoint> path)
+	{
+		double dist = 0.0;
+		GeographicPoint curr = start;
+		for (GeographicPoint next : path) {
+			dist += curr.distance(next);
+			curr = next;
+		}
+		dist += curr.distance(end);
+		return dist;
+	}
+}
@@ -0,0 +1,40 @@
+/**
+ * Receives the collapsed road graph produced by RoadMapPipeline.
+ *
+ * All intersections are reported before any edge, so a sink can build
+ * its vertices first and then connect them.
+ */
+package util;
+
+import java.util.List;
+
+import geography.GeographicPoint;
+
+public interface RoadMapSink
+{
+	/**
+	 * Called once for every intersection (vertex) of the road graph.
+	 * @param pt The location of the intersection.
+	 */
+	void addIntersection(GeographicPoint pt);
+
+	/**
+	 * Called once for every one way edge between two intersections.
+	 * @param from The intersection the edge starts at.
+	 * @param to The intersection the edge ends at.
+	 * @param roadName The name of the road.
+	 * @param roadType The type of the road.
+	 * @param length The length of the road along its geometry, in km.
+	 * @param geometry The points strictly between from and to.  The list
+	 *   is shared by all sinks and must not be modified.
+	 */
+	void addEdge(GeographicPoint from, GeographicPoint to, String roadName,
+			String roadType, double length, List<GeographicPoint> geometry);
+
+	/**
+	 * Called after the last edge.
+	 */
+	default void finish()
+	{
+	}
+}
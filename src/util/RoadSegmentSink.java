@@ -0,0 +1,63 @@
+/**
+ * A RoadMapSink that stores the geometry of each edge as a RoadSegment,
+ * indexed by both of its end points.  The segments are kept separately
+ * from the graph as they are only used to display paths.  The geometry of
+ * all the segments made by one sink shares a single GeometryStore.  The
+ * two directions of a road share one segment, so its geometry is stored
+ * once.
+ */
+package util;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+import geography.GeographicPoint;
+import geography.GeometryStore;
+import geography.RoadSegment;
+
+public class RoadSegmentSink implements RoadMapSink
+{
+	private HashMap<GeographicPoint,HashSet<RoadSegment>> segments;
+	private GeometryStore geometryStore = new GeometryStore();
+
+	/**
+	 * @param segments The map to add the road segments to.
+	 */
+	public RoadSegmentSink(HashMap<GeographicPoint,HashSet<RoadSegment>> segments)
+	{
+		this.segments = segments;
+	}
+
+	public void addIntersection(GeographicPoint pt)
+	{
+	}
+
+	public void addEdge(GeographicPoint from, GeographicPoint to, String roadName,
+			String roadType, double length, List<GeographicPoint> geometry)
+	{
+		// The reverse direction may already be stored; its length can
+		// differ from this one's in the last bits
+		HashSet<RoadSegment> atFrom = segments.get(from);
+		if (atFrom != null) {
+			RoadSegment existing = RoadSegment.find(atFrom, from, to, roadName, roadType, length);
+			if (existing != null && RoadSegment.sameLength(existing.getLength(), length)) {
+				return;
+			}
+		}
+		RoadSegment seg = new RoadSegment(from, to, geometryStore, geometryStore.add(from, geometry, to),
+				roadName, roadType, length);
+		add(from, seg);
+		add(to, seg);
+	}
+
+	private void add(GeographicPoint pt, RoadSegment seg)
+	{
+		HashSet<RoadSegment> segs = segments.get(pt);
+		if (segs == null) {
+			segs = new HashSet<RoadSegment>();
+			segments.put(pt, segs);
+		}
+		segs.add(seg);
+	}
+}
@@ -0,0 +1,398 @@
+/**
+ * A compact, array based view of the raw road segments of a .map file.
+ *
+ * Every distinct point read from the file gets an integer id (in order
+ * of first appearance) and every line of the file is a segment id.  The
+ * segments are indexed by their start and end points in CSR form
+ * (compressed sparse rows), so the intersection test and the tracing
+ * of the chains between intersections only ever touch primitive arrays.
+ *
+ * The rules deciding which points are intersections and how a chain
+ * continues through the others only look at the segments around one
+ * point, so they are written once against the RawSegments view, which this
+ * class implements over its arrays and MapDeltaApplier over segment
+ * lists it can edit.
+ *
+ * The intersections are listed in the order the original loader's
+ * HashMap of points iterated them, so basicgraph vertices keep the
+ * numbers the grader answers in data/graders were made with.
+ */
+package util;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import geography.GeographicPoint;
+
+public class RoadTopology implements RawSegments
+{
+	// Point table
+	private int numPoints;
+	private GeographicPoint[] points;
+
+	// Segment table.  Names and types are interned into the strings table.
+	private int numSegments;
+	private int[] segFrom;
+	private int[] segTo;
+	private int[] segName;
+	private int[] segType;
+	private String[] strings;
+
+	// CSR of the segments leaving (out) and entering (in) each point,
+	// in the order they appear in the file.
+	private int[] outStart;
+	private int[] outSegs;
+	private int[] inStart;
+	private int[] inSegs;
+
+	private boolean[] intersection;
+	// Point ids in the iteration order of a HashMap filled with the
+	// points in order of first appearance
+	private int[] mapOrder;
+
+	/**
+	 * Callback for the edges produced by collapsing the segments between
+	 * intersections.
+	 */
+	public interface EdgeVisitor
+	{
+		/**
+		 * Called once per collapsed edge.
+		 * @param segment The first raw segment of the edge.  It gives the
+		 *   start point, road name and road type of the edge.
+		 * @param end The intersection the edge ends at.
+		 * @param interior The points strictly between the start and end,
+		 *   in order.  The array is reused between calls.
+		 * @param interiorCount The number of valid entries in interior.
+		 */
+		void visitEdge(int segment, int end, int[] interior, int interiorCount);
+	}
+
+	private RoadTopology()
+	{
+	}
+
+	/**
+	 * Read a .map file and build its topology.
+	 * @param filename The file containing the road data.
+	 * @return The topology of the file.
+	 */
+	public static RoadTopology load(String filename)
+	{
+		Builder builder = new Builder();
+		MapFileReader.read(filename, builder);
+		return builder.build();
+	}
+
+	/**
+	 * Read a .map file and build its topology, failing rather than
+	 * building the topology of part of the file.
+	 * @param filename The file containing the road data.
+	 * @return The topology of the file.
+	 * @throws IOException If the file cannot be read to the end.
+	 */
+	public static RoadTopology parse(String filename) throws IOException
+	{
+		Builder builder = new Builder();
+		MapFileReader.parse(filename, builder);
+		return builder.build();
+	}
+
+	/** @return The number of distinct points in the file. */
+	public int getNumPoints() { return numPoints; }
+
+	/** @return The number of raw segments (lines) in the file. */
+	public int getNumSegments() { return numSegments; }
+
+	/** @return The point with the given id. */
+	public GeographicPoint getPoint(int p) { return points[p]; }
+
+	/** @return true if the point with the given id is an intersection. */
+	public boolean isIntersection(int p) { return intersection[p]; }
+
+	/** @return The number of segments leaving the point. */
+	public int getOutDegree(int p) { return outStart[p + 1] - outStart[p]; }
+
+	/** @return The number of segments entering the point. */
+	public int getInDegree(int p) { return inStart[p + 1] - inStart[p]; }
+
+	/** @return The i-th segment leaving the point, in file order. */
+	public int getOut(int p, int i) { return outSegs[outStart[p] + i]; }
+
+	/** @return The i-th segment entering the point, in file order. */
+	public int getIn(int p, int i) { return inSegs[inStart[p] + i]; }
+
+	/** @return The start point of a segment. */
+	public int getFrom(int s) { return segFrom[s]; }
+
+	/** @return The end point of a segment. */
+	public int getTo(int s) { return segTo[s]; }
+
+	/** @return The interned id of the road name of a segment. */
+	public int getNameId(int s) { return segName[s]; }
+
+	/** @return The interned id of the road type of a segment. */
+	public int getTypeId(int s) { return segType[s]; }
+
+	/** @return The road name of a segment. */
+	public String getRoadName(int s) { return strings[segName[s]]; }
+
+	/** @return The road type of a segment. */
+	public String getRoadType(int s) { return strings[segType[s]]; }
+
+	/**
+	 * Return the ids of all intersections, in the order the loader has
+	 * always numbered them: that of a HashMap of the points.
+	 * @return The intersection ids.
+	 */
+	public int[] getIntersections()
+	{
+		int count = 0;
+		for (int p = 0; p < numPoints; p++) {
+			if (intersection[p]) count++;
+		}
+		int[] result = new int[count];
+		int i = 0;
+		for (int p : mapOrder) {
+			if (intersection[p]) result[i++] = p;
+		}
+		return result;
+	}
+
+	/**
+	 * Trace every outgoing segment of every intersection to the next
+	 * intersection, collapsing the pass-through points in between.
+	 * Each raw segment is followed at most once per chain, so the whole
+	 * pass is linear in the number of segments.
+	 * @param visitor The callback receiving each collapsed edge.
+	 */
+	public void traceEdges(EdgeVisitor visitor)
+	{
+		int[] interior = new int[16];
+		for (int p = 0; p < numPoints; p++) {
+			if (intersection[p]) {
+				interior = traceEdgesFrom(this, p, interior, visitor);
+			}
+		}
+	}
+
+	/**
+	 * Trace every outgoing segment of one intersection to the next
+	 * intersection.
+	 * @param segments The segments to trace.
+	 * @param p The intersection.
+	 * @param interior A buffer for the points passed on the way.
+	 * @param visitor The callback receiving each collapsed edge.
+	 * @return The buffer, grown if it was too small.
+	 */
+	static int[] traceEdgesFrom(RawSegments segments, int p, int[] interior, EdgeVisitor visitor)
+	{
+		int limit = segments.getNumSegments();
+		for (int i = 0; i < segments.getOutDegree(p); i++) {
+			int first = segments.getOut(p, i);
+			int count = 0;
+			int prev = p;
+			int end = segments.getTo(first);
+			int steps = 0;
+			while (!segments.isIntersection(end) && steps++ < limit) {
+				if (count == interior.length) {
+					interior = Arrays.copyOf(interior, count * 2);
+				}
+				interior[count++] = end;
+				int next = nextSegment(segments, prev, end);
+				prev = end;
+				end = segments.getTo(next);
+			}
+			visitor.visitEdge(first, end, interior, count);
+		}
+		return interior;
+	}
+
+	// Pick the segment that continues a chain arriving at pt from prev:
+	// the first segment out of pt, unless it just turns back to prev.
+	private static int nextSegment(RawSegments segments, int prev, int pt)
+	{
+		int degree = segments.getOutDegree(pt);
+		int next = segments.getOut(pt, 0);
+		if (degree == 2) {
+			if (segments.getTo(next) == prev) {
+				next = segments.getOut(pt, 1);
+			}
+		}
+		else if (degree != 1) {
+			System.out.println("Something went wrong building edges");
+		}
+		return next;
+	}
+
+	// Build the CSR indices and flag the intersections.
+	private void index()
+	{
+		outStart = new int[numPoints + 1];
+		inStart = new int[numPoints + 1];
+		for (int s = 0; s < numSegments; s++) {
+			outStart[segFrom[s] + 1]++;
+			inStart[segTo[s] + 1]++;
+		}
+		for (int p = 0; p < numPoints; p++) {
+			outStart[p + 1] += outStart[p];
+			inStart[p + 1] += inStart[p];
+		}
+
+		outSegs = new int[numSegments];
+		inSegs = new int[numSegments];
+		int[] outFill = Arrays.copyOf(outStart, numPoints);
+		int[] inFill = Arrays.copyOf(inStart, numPoints);
+		for (int s = 0; s < numSegments; s++) {
+			outSegs[outFill[segFrom[s]]++] = s;
+			inSegs[inFill[segTo[s]]++] = s;
+		}
+
+		intersection = new boolean[numPoints];
+		for (int p = 0; p < numPoints; p++) {
+			intersection[p] = computeIsIntersection(this, p);
+		}
+	}
+
+	/**
+	 * Decide from its segments whether a point is an intersection.
+	 * Intersections are either dead ends (1 road in and 1 road out, which
+	 * are the reverse of each other) or intersections between two different
+	 * roads, or where three or more segments of the same road meet.  A
+	 * point without any segment is not one.
+	 * @param segments The segments of the map.
+	 * @param p The point.
+	 * @return true if the point is an intersection.
+	 */
+	static boolean computeIsIntersection(RawSegments segments, int p)
+	{
+		int outDegree = segments.getOutDegree(p);
+		int inDegree = segments.getInDegree(p);
+
+		if (inDegree == 0 && outDegree == 0) {
+			return false;
+		}
+		if (inDegree == 1 && outDegree == 1) {
+			int in = segments.getIn(p, 0);
+			int out = segments.getOut(p, 0);
+			boolean reversed = segments.getFrom(in) == segments.getTo(out)
+					&& segments.getTo(in) == segments.getFrom(out);
+			return reversed || segments.getNameId(in) != segments.getNameId(out);
+		}
+		if (inDegree == 2 && outDegree == 2) {
+			int in1 = segments.getIn(p, 0);
+			int in2 = segments.getIn(p, 1);
+			int out1 = segments.getOut(p, 0);
+			int out2 = segments.getOut(p, 1);
+
+			int name = segments.getNameId(in1);
+			boolean sameName = segments.getNameId(in2) == name
+					&& segments.getNameId(out1) == name && segments.getNameId(out2) == name;
+			boolean passThrough =
+					(isReverse(segments, in1, out1) && isReverse(segments, in2, out2)) ||
+					(isReverse(segments, in1, out2) && isReverse(segments, in2, out1));
+			return !(sameName && passThrough);
+		}
+		return true;
+	}
+
+	private static boolean isReverse(RawSegments segments, int a, int b)
+	{
+		return segments.getFrom(a) == segments.getTo(b) && segments.getTo(a) == segments.getFrom(b)
+				&& segments.getNameId(a) == segments.getNameId(b)
+				&& segments.getTypeId(a) == segments.getTypeId(b);
+	}
+
+
+	/**
+	 * Accumulates raw segments, interning points and strings, and
+	 * produces the indexed topology.
+	 */
+	public static class Builder implements MapFileReader.SegmentHandler
+	{
+		private HashMap<GeographicPoint, Integer> pointIds =
+				new HashMap<GeographicPoint, Integer>();
+		private HashMap<String, Integer> stringIds = new HashMap<String, Integer>();
+		private GeographicPoint[] points = new GeographicPoint[64];
+		private String[] strings = new String[16];
+		private int numPoints;
+		private int numStrings;
+
+		private int[] segFrom = new int[64];
+		private int[] segTo = new int[64];
+		private int[] segName = new int[64];
+		private int[] segType = new int[64];
+		private int numSegments;
+
+		public void segment(double lat1, double lon1, double lat2, double lon2,
+				String roadName, String roadType)
+		{
+			if (numSegments == segFrom.length) {
+				int capacity = numSegments * 2;
+				segFrom = Arrays.copyOf(segFrom, capacity);
+				segTo = Arrays.copyOf(segTo, capacity);
+				segName = Arrays.copyOf(segName, capacity);
+				segType = Arrays.copyOf(segType, capacity);
+			}
+			segFrom[numSegments] = pointId(new GeographicPoint(lat1, lon1));
+			segTo[numSegments] = pointId(new GeographicPoint(lat2, lon2));
+			segName[numSegments] = stringId(roadName);
+			segType[numSegments] = stringId(roadType);
+			numSegments++;
+		}
+
+		private int pointId(GeographicPoint pt)
+		{
+			Integer id = pointIds.get(pt);
+			if (id == null) {
+				id = numPoints;
+				pointIds.put(pt, id);
+				if (numPoints == points.length) {
+					points = Arrays.copyOf(points, numPoints * 2);
+				}
+				points[numPoints++] = pt;
+			}
+			return id;
+		}
+
+		private int stringId(String s)
+		{
+			Integer id = stringIds.get(s);
+			if (id == null) {
+				id = numStrings;
+				stringIds.put(s, id);
+				if (numStrings == strings.length) {
+					strings = Arrays.copyOf(strings, numStrings * 2);
+				}
+				strings[numStrings++] = s;
+			}
+			return id;
+		}
+
+		/**
+		 * @return The indexed topology of the segments added so far.
+		 */
+		public RoadTopology build()
+		{
+			RoadTopology topology = new RoadTopology();
+			topology.numPoints = numPoints;
+			topology.points = Arrays.copyOf(points, numPoints);
+			topology.numSegments = numSegments;
+			topology.segFrom = Arrays.copyOf(segFrom, numSegments);
+			topology.segTo = Arrays.copyOf(segTo, numSegments);
+			topology.segName = Arrays.copyOf(segName, numSegments);
+			topology.segType = Arrays.copyOf(segType, numSegments);
+			topology.strings = Arrays.copyOf(strings, numStrings);
+			// pointIds was filled in order of first appearance, like the
+			// point map of the original loader, so it iterates the same way
+			topology.mapOrder = new int[numPoints];
+			int i = 0;
+			for (int p : pointIds.values()) {
+				topology.mapOrder[i++] = p;
+			}
+			topology.index();
+			return topology;
+		}
+	}
+}